@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.util.List;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+import com.example.android.booklistingapp.core.Histogram;
+import com.example.android.booklistingapp.core.Metrics;
+
+/**
+ * Debug screen that displays the latency percentiles of every stage of the search pipeline
+ * measured since the process started, followed by the summary of the frames of the list and the
+ * statistics of the cover cache and of the {@link MemoryGovernor}, and exports them as structured
+ * logs.
+ */
+public class MetricsActivity extends AppCompatActivity {
+    // Using the ButterKnife library for view injection.
+    @BindView(R.id.metrics_text)
+    TextView metricsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.metrics_activity);
+        ButterKnife.bind(this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.metrics_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_refresh:
+                showMetrics();
+                return true;
+            case R.id.action_export:
+                MetricsLog.export();
+                Toast.makeText(this, R.string.metrics_exported, Toast.LENGTH_SHORT).show();
+                return true;
+            case R.id.action_reset:
+                Metrics.getInstance().reset();
+                showMetrics();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    /**
+     * Displays one line per measured stage, with its number of samples and its percentiles.
+     */
+    private void showMetrics() {
+        StringBuilder text = new StringBuilder();
+        List<Histogram.Snapshot> snapshots = Metrics.getInstance().snapshots();
+        for (Histogram.Snapshot snapshot : snapshots) {
+            if (snapshot.getCount() > 0) text.append(snapshot).append('\n');
+        }
+        if (text.length() == 0) metricsTextView.setText(R.string.metrics_empty);
+        else metricsTextView.setText(text.append('\n').append(JankMonitor.report())
+                .append("\n\n").append(CoverCache.getInstance(this))
+                .append("\n\n").append(MemoryGovernor.getInstance(this)));
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.util.Log;
+
+import com.example.android.booklistingapp.core.Histogram;
+import com.example.android.booklistingapp.core.Metrics;
+
+/**
+ * Exports the latency {@link Metrics} of the app as structured logs: one JSON object per stage,
+ * under the {@link #LOG_TAG} tag, so they can be collected with "adb logcat -s BookMetrics" and
+ * compared across releases. They are only exported on demand, from the {@link MetricsActivity}
+ * of debug builds, so this class is not part of release builds.
+ */
+final class MetricsLog {
+    static final String LOG_TAG = "BookMetrics";
+
+    private MetricsLog() {
+    }
+
+    /**
+     * Logs the statistics of every stage measured so far.
+     */
+    static void export() {
+        for (Histogram.Snapshot snapshot : Metrics.getInstance().snapshots()) {
+            if (snapshot.getCount() > 0) Log.i(LOG_TAG, snapshot.toJson());
+        }
+    }
+}
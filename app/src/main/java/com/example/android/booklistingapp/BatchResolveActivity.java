@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.BookFilter;
+import com.example.android.booklistingapp.core.SortOrder;
+import com.example.android.booklistingapp.core.TokenBucket;
+
+/**
+ * Resolves a list of ISBNs or titles, pasted from the clipboard or read from a text file, and
+ * displays the matching books as they arrive, together with the progress and the throughput.
+ */
+public class BatchResolveActivity extends AppCompatActivity implements BatchResolver.Listener {
+    private static final int OPEN_FILE_REQUEST = 1;     // Request code for picking the list file.
+
+    // Using the ButterKnife library for view injection.
+    @BindView(R.id.paste_button)
+    Button pasteButton;
+    @BindView(R.id.open_file_button)
+    Button openFileButton;
+    @BindView(R.id.batch_progress)
+    ProgressBar progressBar;
+    @BindView(R.id.batch_status)
+    TextView statusTextView;
+    @BindView(R.id.list)
+    RecyclerView bookListView;
+
+    private BookAdapter mAdapter;                   // Adapter for the list of resolved books.
+    private BatchResolver resolver;                 // Resolver of the current list, or null.
+    private int displayedCount;                     // Resolved books submitted to the adapter.
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.batch_activity);
+        ButterKnife.bind(this);
+
+        // Open the website of the book clicked by the user, as in the search results.
+        mAdapter = new BookAdapter(this, new BookAdapter.OnBookClickListener() {
+            @Override
+            public void onBookClick(Book book) {
+                startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(book.getUrl())));
+            }
+        });
+        // Books are displayed in the order they are resolved.
+        mAdapter.setArrangement(new BookFilter(), SortOrder.RELEVANCE, null);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(layoutManager);
+        bookListView.setHasFixedSize(true);
+        bookListView.setAdapter(mAdapter);
+        bookListView.addOnScrollListener(new CoverPrefetcher(this, layoutManager, mAdapter));
+
+        pasteButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                pasteList();
+            }
+        });
+        openFileButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("text/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, OPEN_FILE_REQUEST);
+            }
+        });
+
+        // Keep resolving the list started before the activity was recreated.
+        resolver = (BatchResolver) getLastCustomNonConfigurationInstance();
+        if (resolver != null) {
+            resolver.setListener(this);
+            onProgress(resolver);
+        } else {
+            progressBar.setVisibility(View.INVISIBLE);
+        }
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return resolver;
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == OPEN_FILE_REQUEST && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            newResolver().resolve(data.getData());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (resolver != null) {
+            if (isChangingConfigurations()) {
+                resolver.setListener(null);
+            } else {
+                resolver.cancel();
+            }
+        }
+        mAdapter.release();
+    }
+
+    @Override
+    public void onProgress(BatchResolver resolver) {
+        int total = resolver.getTotal();
+        progressBar.setVisibility(View.VISIBLE);
+        progressBar.setIndeterminate(total < 0);
+        if (total < 0) {
+            statusTextView.setText(R.string.batch_reading);
+            return;
+        }
+        progressBar.setMax(total);
+        progressBar.setProgress(resolver.getDone());
+        String status = getString(R.string.batch_progress, resolver.getDone(), total,
+                resolver.getThroughput(), resolver.getNotFound(), resolver.getFailed(), resolver.getRetries());
+        if (resolver.getSkipped() > 0) {
+            // Part of the list is past the limit, and is never resolved.
+            status += "\n" + getString(R.string.batch_skipped, resolver.getSkipped(), BatchResolver.MAX_ENTRIES);
+        }
+        statusTextView.setText(status);
+        if (displayedCount != resolver.getResolvedCount()) {
+            displayedCount = resolver.getResolvedCount();
+            mAdapter.submitList(resolver.getBooks(), null);
+        }
+    }
+
+    /**
+     * Resolves the list of ISBNs or titles in the clipboard.
+     */
+    private void pasteList() {
+        ClipboardManager clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
+        ClipData clip = clipboard.getPrimaryClip();
+        CharSequence text = clip != null && clip.getItemCount() > 0 ? clip.getItemAt(0).coerceToText(this) : null;
+        if (text == null || text.toString().trim().isEmpty()) {
+            Toast.makeText(getApplicationContext(), R.string.batch_empty_clipboard, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        newResolver().resolve(text.toString());
+    }
+
+    /**
+     * Cancels the list being resolved, if any, and creates a resolver for a new list.
+     */
+    private BatchResolver newResolver() {
+        if (resolver != null) resolver.cancel();
+        mAdapter.cancelCoverLoads();
+        mAdapter.clear();
+        displayedCount = 0;
+        TokenBucket bucket = new TokenBucket(getResources().getInteger(R.integer.batch_requests_per_second),
+                getResources().getInteger(R.integer.batch_burst));
+        resolver = new BatchResolver(this, getResources().getInteger(R.integer.batch_parallelism), bucket,
+                getResources().getInteger(R.integer.batch_max_retries),
+                getResources().getInteger(R.integer.batch_retry_base_millis));
+        resolver.setListener(this);
+        onProgress(resolver);
+        return resolver;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.OnBookParsedListener;
+import com.example.android.booklistingapp.core.TokenBucket;
+import com.example.android.booklistingapp.core.VolumesQuery;
+
+/**
+ * Resolves a list of ISBNs or titles into their best matching books, for importing the lists of
+ * the catalog in one go instead of searching them one by one.
+ * <p>
+ * Entries are resolved concurrently, but never more than a fixed number at a time, and every
+ * request takes a token from a {@link TokenBucket}, so a long list does not exhaust the quota of
+ * the Google Books API. Requests that fail are retried after an exponential backoff with jitter;
+ * entries that get a response without results are reported as not found without retrying.
+ * <p>
+ * The progress is kept on the main thread, where the listener is notified as every entry is done,
+ * so the resolver can be kept across configuration changes and handed to the new activity.
+ */
+final class BatchResolver {
+    private static final String LOG_TAG = BatchResolver.class.getSimpleName();
+
+    static final int MAX_ENTRIES = 1000;                    // Entries resolved from a single list.
+
+    /**
+     * Listener notified on the main thread when the progress changes.
+     */
+    interface Listener {
+        void onProgress(BatchResolver resolver);
+    }
+
+    private final ResponseCache cache;                      // Cache of the responses.
+    private final ContentResolver contentResolver;          // Resolver for reading the files.
+    private final TokenBucket bucket;                       // Limiter of the rate of requests.
+    private final int maxRetries;                           // Retries of a failed request.
+    private final long retryBaseMillis;                     // Delay before the first retry.
+    private final ThreadPoolExecutor executor;              // Pool with a thread per parallel entry.
+    private final Handler mainHandler;                      // Handler for posting the progress.
+    private final Set<CancellationSignal> signals;          // Signals of the requests in flight.
+    private final Random random = new Random();             // Source of the jitter of the backoff.
+    private volatile boolean cancelled;
+
+    // Progress, only accessed on the main thread.
+    private Listener listener;
+    private final List<Book> books = new ArrayList<>();     // Resolved books, as they arrive.
+    private int total = -1;                                 // Entries of the list, or -1 if unread.
+    private int skipped;                                    // Entries past MAX_ENTRIES, not resolved.
+    private int resolved;                                   // Entries with a matching book.
+    private int notFound;                                   // Entries without a matching book.
+    private int failed;                                     // Entries whose requests all failed.
+    private int retries;                                    // Requests retried so far.
+    private long startedAt;                                 // Time of start, for the throughput.
+    private long finishedAt;                                // Time of the last entry done, or 0.
+
+    /**
+     * Constructs a new {@link BatchResolver}.
+     *
+     * @param context         of the app.
+     * @param parallelism     is the maximum number of entries resolved at the same time.
+     * @param bucket          is the limiter of the rate of requests.
+     * @param maxRetries      is the maximum number of retries of a failed request.
+     * @param retryBaseMillis is the delay before the first retry, which doubles at every retry.
+     */
+    BatchResolver(Context context, int parallelism, TokenBucket bucket, int maxRetries, long retryBaseMillis) {
+        cache = ResponseCache.getInstance(context);
+        contentResolver = context.getApplicationContext().getContentResolver();
+        this.bucket = bucket;
+        this.maxRetries = maxRetries;
+        this.retryBaseMillis = retryBaseMillis;
+        executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mainHandler = new Handler(Looper.getMainLooper());
+        signals = Collections.synchronizedSet(new HashSet<CancellationSignal>());
+    }
+
+    /**
+     * Sets the listener notified when the progress changes, or null.
+     */
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Resolves the entries of the given text, one per line. This method can only be called once.
+     *
+     * @param text is the list of ISBNs or titles.
+     */
+    void resolve(final String text) {
+        start(new Runnable() {
+            @Override
+            public void run() {
+                submit(parseEntries(new BufferedReader(new StringReader(text))));
+            }
+        });
+    }
+
+    /**
+     * Resolves the entries of the given text file, one per line. The file is read on a background
+     * thread. This method can only be called once.
+     *
+     * @param uri is the uri of the list of ISBNs or titles.
+     */
+    void resolve(final Uri uri) {
+        start(new Runnable() {
+            @Override
+            public void run() {
+                List<String> entries = Collections.emptyList();
+                InputStream inputStream = null;
+                try {
+                    inputStream = contentResolver.openInputStream(uri);
+                    if (inputStream == null) throw new IOException("Can't open " + uri);
+                    entries = parseEntries(new BufferedReader(new InputStreamReader(inputStream, "UTF-8")));
+                } catch (IOException | SecurityException e) {
+                    Log.e(LOG_TAG, "Problem reading the list of books " + uri, e);
+                } finally {
+                    IoUtils.closeQuietly(inputStream);
+                }
+                submit(entries);
+            }
+        });
+    }
+
+    /**
+     * Stops resolving the list, cancelling the requests in flight. The resolver can not be used
+     * anymore after calling this method.
+     */
+    void cancel() {
+        cancelled = true;
+        executor.shutdownNow();
+        synchronized (signals) {
+            for (CancellationSignal signal : signals) signal.cancel();
+        }
+        listener = null;
+    }
+
+    /**
+     * Getters of the progress, for the main thread.
+     */
+    List<Book> getBooks() {
+        return new ArrayList<>(books);
+    }
+
+    int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the number of entries of the list past {@link #MAX_ENTRIES}, which are not
+     * resolved and are not counted in the total.
+     */
+    int getSkipped() {
+        return skipped;
+    }
+
+    int getResolvedCount() {
+        return resolved;
+    }
+
+    int getDone() {
+        return resolved + notFound + failed;
+    }
+
+    int getNotFound() {
+        return notFound;
+    }
+
+    int getFailed() {
+        return failed;
+    }
+
+    int getRetries() {
+        return retries;
+    }
+
+    boolean isFinished() {
+        return total >= 0 && getDone() == total;
+    }
+
+    /**
+     * Returns the number of entries done per second, since the list was started.
+     */
+    float getThroughput() {
+        long end = finishedAt != 0 ? finishedAt : SystemClock.elapsedRealtime();
+        return startedAt == 0 || end <= startedAt ? 0 : getDone() * 1000f / (end - startedAt);
+    }
+
+    /**
+     * Reads the entries of a list on a background thread, and then resolves them.
+     */
+    private void start(Runnable reader) {
+        startedAt = SystemClock.elapsedRealtime();
+        execute(reader);
+    }
+
+    /**
+     * Reads the entries of a list, one per line, skipping the blank lines and the duplicates.
+     */
+    private static List<String> parseEntries(BufferedReader reader) {
+        Set<String> entries = new LinkedHashSet<>();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) entries.add(line);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the list of books.", e);
+        }
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * Publishes the number of entries and queues them for being resolved, up to
+     * {@link #MAX_ENTRIES}. The entries past the limit are counted as skipped, so the user knows
+     * that part of the list was not resolved.
+     */
+    private void submit(List<String> allEntries) {
+        final List<String> entries = allEntries.subList(0, Math.min(allEntries.size(), MAX_ENTRIES));
+        final int skippedEntries = allEntries.size() - entries.size();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                total = entries.size();
+                skipped = skippedEntries;
+                if (total == 0) finishedAt = SystemClock.elapsedRealtime();
+                notifyListener();
+            }
+        });
+        for (final String entry : entries) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    resolveEntry(entry);
+                }
+            });
+        }
+    }
+
+    /**
+     * Resolves a single entry, retrying the request if it fails.
+     */
+    private void resolveEntry(String entry) {
+        String url = VolumesQuery.buildLookupUrl(entry);
+        final Book[] match = {null};
+        OnBookParsedListener onBookParsed = new OnBookParsedListener() {
+            @Override
+            public void onBookParsed(Book book) {
+                if (match[0] == null) match[0] = book;
+            }
+        };
+
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            CancellationSignal signal = new CancellationSignal();
+            signals.add(signal);
+            try {
+                if (cancelled) return;
+                if (attempt > 0) {
+                    // Back off exponentially, with jitter so the retries of concurrent entries
+                    // don't hit the API at the same time again.
+                    long delay = retryBaseMillis << (attempt - 1);
+                    Thread.sleep(delay / 2 + (long) (random.nextDouble() * delay / 2));
+                    postRetry();
+                }
+                bucket.acquire();
+                if (cancelled) return;
+                match[0] = null;
+                if (QueryUtils.fetchBookData(cache, url, onBookParsed, signal)) {
+                    postDone(match[0], false);
+                    return;
+                }
+            } catch (InterruptedException | OperationCanceledException e) {
+                return;
+            } finally {
+                signals.remove(signal);
+            }
+        }
+        postDone(null, true);
+    }
+
+    /**
+     * Executes a task on the pool, unless the resolver has been cancelled.
+     */
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The resolver has been cancelled.
+        }
+    }
+
+    private void postRetry() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                retries++;
+                notifyListener();
+            }
+        });
+    }
+
+    private void postDone(final Book book, final boolean requestFailed) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (requestFailed) {
+                    failed++;
+                } else if (book == null) {
+                    notFound++;
+                } else {
+                    resolved++;
+                    books.add(book);
+                }
+                if (isFinished()) finishedAt = SystemClock.elapsedRealtime();
+                notifyListener();
+            }
+        });
+    }
+
+    private void notifyListener() {
+        if (!cancelled && listener != null) listener.onProgress(this);
+    }
+}
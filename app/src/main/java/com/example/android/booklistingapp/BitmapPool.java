@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A {@link BitmapPool} keeps bitmaps that are not used anymore, so their memory can be reused by
+ * {@link android.graphics.BitmapFactory.Options#inBitmap} for decoding new bitmaps, instead of
+ * allocating new memory and making the garbage collector free the old one. The pool is bounded by
+ * a byte budget; the oldest bitmaps are dropped when it is exceeded.
+ * <p>
+ * This class is thread-safe.
+ */
+class BitmapPool {
+    private final long maxBytes;                            // Budget of the pool.
+    private final LinkedList<Bitmap> bitmaps;               // Pooled bitmaps, oldest first.
+    private long bytes;                                     // Bytes of the pooled bitmaps.
+
+    /**
+     * Constructs a new empty {@link BitmapPool}.
+     *
+     * @param maxBytes is the maximum number of bytes of the pooled bitmaps.
+     */
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+        bitmaps = new LinkedList<>();
+    }
+
+    /**
+     * Adds a bitmap that is not used anymore to the pool. Immutable bitmaps can't be reused, so
+     * they are ignored.
+     *
+     * @param bitmap is the bitmap.
+     */
+    synchronized void put(Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.isRecycled() || bitmap.getAllocationByteCount() > maxBytes) return;
+        bitmaps.addLast(bitmap);
+        bytes += bitmap.getAllocationByteCount();
+        while (bytes > maxBytes) {
+            bytes -= bitmaps.removeFirst().getAllocationByteCount();
+        }
+    }
+
+    /**
+     * Removes from the pool and returns a bitmap big enough for decoding an image of the given
+     * size and configuration into it.
+     *
+     * @param width  is the width of the image.
+     * @param height is the height of the image.
+     * @param config is the configuration of the image.
+     * @return a reusable bitmap, or null if there is none big enough.
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long required = (long) width * height * bytesPerPixel(config);
+        Iterator<Bitmap> iterator = bitmaps.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.getAllocationByteCount() >= required) {
+                iterator.remove();
+                bytes -= bitmap.getAllocationByteCount();
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes all the bitmaps from the pool.
+     */
+    synchronized void clear() {
+        bitmaps.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the number of bytes of the pooled bitmaps.
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes used by every pixel of a bitmap with the given configuration.
+     */
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) return 2;
+        if (config == Bitmap.Config.ALPHA_8) return 1;
+        return 4;
+    }
+}
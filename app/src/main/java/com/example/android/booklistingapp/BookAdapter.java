@@ -16,115 +16,340 @@
 package com.example.android.booklistingapp;
 
 import android.content.Context;
-import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import butterknife.BindView;
+import butterknife.BindViews;
 import butterknife.ButterKnife;
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.BookFilter;
+import com.example.android.booklistingapp.core.BookQueryEngine;
+import com.example.android.booklistingapp.core.Metrics;
+import com.example.android.booklistingapp.core.SortOrder;
 
 /**
  * An {@link BookAdapter} knows how to create a list item layout for each book in the data source (a
- * list of {@link Book} objects). These list item layouts will be provided to an adapter view like
- * ListView to be displayed to the user.
+ * list of {@link Book} objects). These list item layouts will be provided to a RecyclerView to be
+ * displayed to the user.
+ * <p>
+ * New lists of books are compared with the displayed one by {@link DiffUtil} on a background
+ * thread, and only the rows that have changed are notified, so appending or dropping a page of
+ * results does not rebind the whole list. The loaded books are filtered and sorted on the same
+ * background thread by a {@link BookQueryEngine}, so changing the order or the filter does not go
+ * back to the network nor block the main thread. All the methods of this class must be called from
+ * the main thread.
  */
-class BookAdapter extends ArrayAdapter<Book> {
-    // Using the ButterKnife library for view injection.
-    @BindView(R.id.book_thumbnail)
-    ImageView thumbnailImage;
-    @BindView(R.id.book_title)
-    TextView titleView;
-    @BindView(R.id.book_authors)
-    TextView authorsView;
-    @BindView(R.id.book_publisher_date)
-    TextView publicationView;
-    @BindView(R.id.book_description)
-    TextView descriptionView;
-
-    /**
-     * Constructs a new {@link BookAdapter}.
+class BookAdapter extends RecyclerView.Adapter<BookAdapter.BookViewHolder> {
+    private final Context context;
+    private final CoverLoader coverLoader;  // Loader for the images of the covers of the books.
+    private final ExecutorService diffExecutor;     // Thread for computing the list updates.
+    private final Handler mainHandler;              // Handler for applying the list updates.
+    private final OnBookClickListener listener;     // Listener for clicks on the books.
+    private final BookQueryEngine queryEngine;      // Engine for filtering and sorting.
+    private List<Book> loadedBooks;                 // Loaded list of books.
+    private List<Book> books;                       // Displayed list of books.
+    private BookFilter filter = new BookFilter();   // Filter of the displayed books.
+    private SortOrder sortOrder = SortOrder.RELEVANCE;  // Order of the displayed books.
+    private int generation;                         // Incremented every time the list is replaced.
+    private JankMonitor jankMonitor;                // Monitor of the smoothness, or null.
+
+    /**
+     * Interface for receiving clicks on the books of the list.
+     */
+    interface OnBookClickListener {
+        void onBookClick(Book book);
+    }
+
+    /**
+     * A {@link BookViewHolder} keeps the views of a list item layout, which are looked up only
+     * once, when the layout is inflated.
+     */
+    class BookViewHolder extends RecyclerView.ViewHolder {
+        // Using the ButterKnife library for view injection.
+        @BindView(R.id.book_thumbnail)
+        ImageView thumbnailImage;
+        @BindView(R.id.book_title)
+        TextView titleView;
+        @BindViews({R.id.book_star1, R.id.book_star2, R.id.book_star3, R.id.book_star4, R.id.book_star5})
+        List<ImageView> starViews;
+        @BindView(R.id.book_authors)
+        TextView authorsView;
+        @BindView(R.id.book_publisher_date)
+        TextView publicationView;
+        @BindView(R.id.book_description)
+        TextView descriptionView;
+
+        BookViewHolder(View itemView) {
+            super(itemView);
+            ButterKnife.bind(this, itemView);
+            itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) listener.onBookClick(books.get(position));
+                }
+            });
+        }
+    }
+
+    /**
+     * Constructs a new {@link BookAdapter} with an empty list of books.
      *
-     * @param context of the app.
-     * @param books   is the list of books, which is the data source of the adapter.
+     * @param context  of the app.
+     * @param listener is the listener for clicks on the books.
      */
-    BookAdapter(Context context, List<Book> books) {
-        super(context, 0, books);
+    BookAdapter(Context context, OnBookClickListener listener) {
+        this.context = context;
+        this.listener = listener;
+        coverLoader = new CoverLoader(context);
+        registerAdapterDataObserver(coverLoader.getPositionObserver());
+        diffExecutor = Executors.newSingleThreadExecutor();
+        mainHandler = new Handler(Looper.getMainLooper());
+        queryEngine = new BookQueryEngine();
+        loadedBooks = Collections.emptyList();
+        books = Collections.emptyList();
+    }
+
+    @Override
+    public BookViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        return new BookViewHolder(listItemView);
     }
 
     /**
-     * Returns a list item view that displays information about the book at the given position in
-     * the list of books.
+     * Displays information about the book at the given position in the list of books in the
+     * views of the given holder.
      *
-     * @param position    is the position of the item within the adapter's data set of the item whose view we want.
-     * @param convertView is the old view to reuse, if possible.
-     * @param parent      is the  parent that this view will eventually be attached to.
-     * @return a View corresponding to the data at the specified position.
+     * @param holder   is the holder of the views of the list item.
+     * @param position is the position of the book in the list of books.
      */
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse.
-        // Otherwise, if convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(R.layout.list_item, parent, false);
-        }
-        ButterKnife.bind(this, listItemView);
+    public void onBindViewHolder(BookViewHolder holder, int position) {
+        long start = Metrics.now();
 
         // Find the book at the given position in the list of books.
-        Book currentBook = getItem(position);
+        Book currentBook = books.get(position);
 
-        // Set the image of the book. If there is no image, it will show the default image
-        // "default_cover.jpg".
-        Bitmap image = currentBook.getImage();
-        if (image != null) {
-            thumbnailImage.setImageBitmap(image);
-        }
+        // Set the image of the book. Until the image is downloaded, or if there is no image, it
+        // will show the default image "default_cover.jpg".
+        coverLoader.load(currentBook, position, holder.thumbnailImage);
 
         // Set the title of the book. If there is no title, hide the title view.
-        String title = currentBook.getTitle();
-        if (!title.isEmpty()) titleView.setText(title);
-        else titleView.setVisibility(View.GONE);
+        setTextOrHide(holder.titleView, currentBook.getTitle());
 
         // Set the rating section for the book. Given a maximum of 5 stars rating, display stars
         // with index below or equal to the rating of the book and hide stars with index above the
         // rating of the book.
         int rating = currentBook.getStars();
-        for (int i = 1; i <= 5; i++) {
-            int resource = listItemView.getResources().getIdentifier("book_star" + i, "id", this.getContext().getPackageName());
-            ImageView starImageView = (ImageView) listItemView.findViewById(resource);
-            if (i <= rating) starImageView.setVisibility(View.VISIBLE);
-            else starImageView.setVisibility(View.GONE);
+        for (int i = 0; i < holder.starViews.size(); i++) {
+            holder.starViews.get(i).setVisibility(i < rating ? View.VISIBLE : View.GONE);
         }
 
         // Set the list of authors of the book. If there is no artists, hide the artists view.
-        String authors = currentBook.getAuthors();
-        if (!authors.isEmpty()) authorsView.setText(authors);
-        else authorsView.setVisibility(View.GONE);
+        setTextOrHide(holder.authorsView, currentBook.getAuthors());
 
         // Set the publisher / year of publication of the book.
         String publisher = currentBook.getPublisher();
         String publishedDate = currentBook.getPublishedDate();
-        if (!publisher.isEmpty()) {
-            if (!publishedDate.isEmpty()) publicationView.setText(publisher + ", " + publishedDate);
-            else publicationView.setText(publisher);
+        if (!publisher.isEmpty() && !publishedDate.isEmpty()) {
+            setTextOrHide(holder.publicationView, publisher + ", " + publishedDate);
         } else {
-            if (!publishedDate.isEmpty()) publicationView.setText(publishedDate);
-            else publicationView.setVisibility(View.GONE);
+            setTextOrHide(holder.publicationView, publisher.isEmpty() ? publishedDate : publisher);
         }
 
         // Set the short description of the book. If there is no short description, hide the
         // description view.
-        String description = currentBook.getDescription();
-        if (!description.isEmpty()) descriptionView.setText(description);
-        else descriptionView.setVisibility(View.GONE);
+        setTextOrHide(holder.descriptionView, currentBook.getDescription());
+
+        long nanos = Metrics.now() - start;
+        Metrics.getInstance().recordNanos(Metrics.STAGE_BIND, nanos);
+        if (jankMonitor != null) jankMonitor.onBind(nanos);
+    }
+
+    /**
+     * Stops loading the cover of a list item that has scrolled out of the screen, and releases it.
+     */
+    @Override
+    public void onViewRecycled(BookViewHolder holder) {
+        coverLoader.recycle(holder.thumbnailImage);
+    }
+
+    /**
+     * Loads the cover of a list item that comes back on screen without being bound again, if its
+     * download was cancelled while it was away.
+     */
+    @Override
+    public void onViewAttachedToWindow(BookViewHolder holder) {
+        int position = holder.getAdapterPosition();
+        if (position != RecyclerView.NO_POSITION) {
+            coverLoader.resume(books.get(position), position, holder.thumbnailImage);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return books.size();
+    }
+
+    /**
+     * Returns the book at the given position of the displayed list.
+     */
+    Book getItem(int position) {
+        return books.get(position);
+    }
+
+    /**
+     * Returns true if the displayed list of books is empty.
+     */
+    boolean isEmpty() {
+        return books.isEmpty();
+    }
+
+    /**
+     * Removes all the books from the list immediately, discarding any pending update.
+     */
+    void clear() {
+        generation++;
+        loadedBooks = Collections.emptyList();
+        books = Collections.emptyList();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Changes the filter and the order of the displayed books, and displays the loaded books again.
+     *
+     * @param newFilter is the filter of the books, which must not be modified afterwards.
+     * @param newOrder  is the order of the books.
+     * @param onUpdated is run on the main thread once the new list is displayed, or null.
+     */
+    void setArrangement(BookFilter newFilter, SortOrder newOrder, Runnable onUpdated) {
+        filter = newFilter;
+        sortOrder = newOrder;
+        submitList(loadedBooks, onUpdated);
+    }
+
+    /**
+     * Replaces the loaded list of books. The new list is filtered and sorted, and the differences
+     * with the displayed list are computed, on a background thread, and then applied on the main
+     * thread, unless the list is replaced again in the meantime.
+     *
+     * @param loaded    is the new list of books, which must not be modified afterwards.
+     * @param onUpdated is run on the main thread once the new list is displayed, or null.
+     */
+    void submitList(final List<Book> loaded, final Runnable onUpdated) {
+        final int submitted = ++generation;
+        final List<Book> oldBooks = books;
+        final BookFilter currentFilter = filter;
+        final SortOrder currentOrder = sortOrder;
+        loadedBooks = loaded;
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                queryEngine.update(loaded);
+                final List<Book> newBooks = queryEngine.query(currentFilter, currentOrder);
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                    @Override
+                    public int getOldListSize() {
+                        return oldBooks.size();
+                    }
+
+                    @Override
+                    public int getNewListSize() {
+                        return newBooks.size();
+                    }
+
+                    @Override
+                    public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                        String oldId = oldBooks.get(oldPosition).getId();
+                        return !oldId.isEmpty() ? oldId.equals(newBooks.get(newPosition).getId())
+                                : oldBooks.get(oldPosition).equals(newBooks.get(newPosition));
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                        return oldBooks.get(oldPosition).equals(newBooks.get(newPosition));
+                    }
+                }, false);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list may have been submitted, or the adapter released.
+                        if (submitted != generation) return;
+                        books = newBooks;
+                        result.dispatchUpdatesTo(BookAdapter.this);
+                        if (onUpdated != null) onUpdated.run();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Tells the cover loader which rows are visible, so the covers closest to them are downloaded
+     * first and the ones far away are cancelled, and prefetches the covers of the rows ahead.
+     *
+     * @param first     is the position of the first visible row.
+     * @param last      is the position of the last visible row.
+     * @param scrolling is positive when scrolling down, negative when scrolling up, or 0 when the
+     *                  list is still, in which case the rows on both sides are prefetched.
+     * @param rowsAhead is the number of rows whose covers are prefetched.
+     * @param keepRows  is the number of rows around the visible ones whose downloads are kept.
+     */
+    void prefetchCovers(int first, int last, int scrolling, int rowsAhead, int keepRows) {
+        coverLoader.setViewport(first, last, scrolling, keepRows);
+        for (int i = 1; i <= rowsAhead; i++) {
+            if (scrolling >= 0 && last + i < books.size()) coverLoader.prefetch(books.get(last + i), last + i);
+            if (scrolling <= 0 && first - i >= 0) coverLoader.prefetch(books.get(first - i), first - i);
+        }
+    }
+
+    /**
+     * Sets the monitor that records the binds performed while scrolling, or null.
+     */
+    void setJankMonitor(JankMonitor monitor) {
+        jankMonitor = monitor;
+    }
+
+    /**
+     * Cancels the downloads of the covers of the books that are still pending.
+     */
+    void cancelCoverLoads() {
+        coverLoader.cancelAll();
+    }
+
+    /**
+     * Cancels the pending downloads and updates, and releases the resources used for downloading
+     * the covers of the books. The adapter can not be used anymore after calling this method.
+     */
+    void release() {
+        generation++;
+        diffExecutor.shutdownNow();
+        coverLoader.shutdown();
+    }
 
-        // Return the list item view that is now showing the appropriate data.
-        return listItemView;
+    /**
+     * Displays a text in the given view, or hides the view if the text is empty. Views are
+     * recycled, so they must be made visible again when there is a text.
+     */
+    private static void setTextOrHide(TextView textView, String text) {
+        if (!text.isEmpty()) {
+            textView.setText(text);
+            textView.setVisibility(View.VISIBLE);
+        } else {
+            textView.setVisibility(View.GONE);
+        }
     }
 }
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.Metrics;
+
+/**
+ * Persistent store of every book fetched from the Google Books API, with a full-text index over
+ * the title, authors, publisher and description, so searches can be answered from the device in a
+ * few milliseconds, before the network responds or when there is no network at all.
+ * <p>
+ * Books are kept in a regular table keyed by volume id, and indexed by an external content FTS4
+ * table kept in sync with triggers. The least recently fetched books are deleted when the store
+ * grows beyond {@link #MAX_BOOKS}.
+ * <p>
+ * The searches typed by the user are kept in a separate table with the number of times they were
+ * made, and are pruned beyond {@link #MAX_QUERIES}. Together with the titles and authors of the
+ * stored books, they are the terms suggested by {@link QueryHistory}.
+ * <p>
+ * SQLite keeps recently used pages of the database in memory, which are released when the
+ * {@link MemoryGovernor} asks for it.
+ * <p>
+ * All the methods of this class access the disk, so they must be called from a background thread,
+ * except {@link #saveAsync(List)} and {@link #setOnBooksSavedListener(OnBooksSavedListener)}.
+ */
+final class BookDatabase extends SQLiteOpenHelper implements MemoryGovernor.Trimmable {
+    private static final String LOG_TAG = BookDatabase.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "books.db";
+    private static final int DATABASE_VERSION = 2;
+    private static final int MAX_BOOKS = 2000;              // Books kept on the device.
+    private static final int MAX_QUERIES = 500;             // Searches kept in the history.
+
+    // Table of books, and its columns.
+    private static final String TABLE_BOOKS = "books";
+    private static final String COLUMN_VOLUME_ID = "volume_id";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_AUTHORS = "authors";
+    private static final String COLUMN_PUBLISHER = "publisher";
+    private static final String COLUMN_PUBLISHED_DATE = "published_date";
+    private static final String COLUMN_PAGES = "pages";
+    private static final String COLUMN_STARS = "stars";
+    private static final String COLUMN_DESCRIPTION = "description";
+    private static final String COLUMN_IMAGE_URL = "image_url";
+    private static final String COLUMN_URL = "url";
+    private static final String COLUMN_FETCHED_AT = "fetched_at";
+
+    // Full-text index of the table of books.
+    private static final String TABLE_INDEX = "books_index";
+
+    // Table of the searches made by the user, and its columns.
+    private static final String TABLE_HISTORY = "query_history";
+    private static final String COLUMN_QUERY = "query";
+    private static final String COLUMN_USES = "uses";
+    private static final String COLUMN_USED_AT = "used_at";
+
+    // Columns of a book, in the order of the arguments of its constructor.
+    private static final String BOOK_COLUMNS = "b." + COLUMN_VOLUME_ID + ", b." + COLUMN_TITLE
+            + ", b." + COLUMN_AUTHORS + ", b." + COLUMN_PUBLISHER + ", b." + COLUMN_PUBLISHED_DATE
+            + ", b." + COLUMN_PAGES + ", b." + COLUMN_STARS + ", b." + COLUMN_DESCRIPTION
+            + ", b." + COLUMN_IMAGE_URL + ", b." + COLUMN_URL;
+
+    /**
+     * Listener notified on the writing thread when books have been saved in the background.
+     */
+    interface OnBooksSavedListener {
+        void onBooksSaved();
+    }
+
+    private static BookDatabase instance;
+
+    // Writes in the background, one at a time.
+    private final Executor writeExecutor = Executors.newSingleThreadExecutor();
+    private volatile OnBooksSavedListener onBooksSavedListener;
+
+    /**
+     * Constructs a new {@link BookDatabase}. Use {@link #getInstance(Context)} instead.
+     *
+     * @param context of the app.
+     */
+    private BookDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        MemoryGovernor.getInstance(context).register("database", this);
+    }
+
+    /**
+     * Returns the database shared by all the components of the app.
+     *
+     * @param context of the app.
+     * @return the shared {@link BookDatabase}.
+     */
+    static synchronized BookDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new BookDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Searches can run while books are saved.
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_VOLUME_ID + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_TITLE + " TEXT NOT NULL, "
+                + COLUMN_AUTHORS + " TEXT NOT NULL, "
+                + COLUMN_PUBLISHER + " TEXT NOT NULL, "
+                + COLUMN_PUBLISHED_DATE + " TEXT NOT NULL, "
+                + COLUMN_PAGES + " INTEGER NOT NULL, "
+                + COLUMN_STARS + " INTEGER NOT NULL, "
+                + COLUMN_DESCRIPTION + " TEXT NOT NULL, "
+                + COLUMN_IMAGE_URL + " TEXT NOT NULL, "
+                + COLUMN_URL + " TEXT NOT NULL, "
+                + COLUMN_FETCHED_AT + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX " + TABLE_BOOKS + "_" + COLUMN_FETCHED_AT + " ON " + TABLE_BOOKS
+                + " (" + COLUMN_FETCHED_AT + ")");
+
+        // The index only keeps the tokens; the text is read from the table of books.
+        String indexedColumns = COLUMN_TITLE + ", " + COLUMN_AUTHORS + ", " + COLUMN_PUBLISHER + ", " + COLUMN_DESCRIPTION;
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_INDEX + " USING fts4(content=\"" + TABLE_BOOKS
+                + "\", " + indexedColumns + ", tokenize=unicode61)");
+
+        // Keep the index in sync with the table of books, as recommended for external content
+        // FTS4 tables.
+        String newValues = "new.rowid, new." + COLUMN_TITLE + ", new." + COLUMN_AUTHORS + ", new."
+                + COLUMN_PUBLISHER + ", new." + COLUMN_DESCRIPTION;
+        String deleteOld = "DELETE FROM " + TABLE_INDEX + " WHERE docid = old.rowid; END";
+        String insertNew = "INSERT INTO " + TABLE_INDEX + " (docid, " + indexedColumns + ") VALUES (" + newValues + "); END";
+        db.execSQL("CREATE TRIGGER " + TABLE_BOOKS + "_bu BEFORE UPDATE ON " + TABLE_BOOKS + " BEGIN " + deleteOld);
+        db.execSQL("CREATE TRIGGER " + TABLE_BOOKS + "_bd BEFORE DELETE ON " + TABLE_BOOKS + " BEGIN " + deleteOld);
+        db.execSQL("CREATE TRIGGER " + TABLE_BOOKS + "_au AFTER UPDATE ON " + TABLE_BOOKS + " BEGIN " + insertNew);
+        db.execSQL("CREATE TRIGGER " + TABLE_BOOKS + "_ai AFTER INSERT ON " + TABLE_BOOKS + " BEGIN " + insertNew);
+
+        createHistory(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Version 2 added the history of searches.
+        if (oldVersion < 2) createHistory(db);
+    }
+
+    /**
+     * Creates the table of the searches made by the user.
+     */
+    private static void createHistory(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_HISTORY + " ("
+                + COLUMN_QUERY + " TEXT NOT NULL PRIMARY KEY, "
+                + COLUMN_USES + " INTEGER NOT NULL, "
+                + COLUMN_USED_AT + " INTEGER NOT NULL)");
+    }
+
+    /**
+     * Returns the stored books that match all the words of the given search string, or words
+     * starting with them, in the title, authors, publisher or description. The most recently
+     * fetched books come first.
+     *
+     * @param query      is the search string.
+     * @param maxResults is the maximum number of books returned.
+     * @return a new list with the matching books, empty if there are none.
+     */
+    List<Book> search(String query, int maxResults) {
+        List<Book> books = new ArrayList<>();
+        String match = toMatchExpression(query);
+        if (match.isEmpty()) return books;
+
+        long start = Metrics.now();
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().rawQuery("SELECT " + BOOK_COLUMNS
+                    + " FROM " + TABLE_BOOKS + " b JOIN " + TABLE_INDEX + " i ON b.rowid = i.docid"
+                    + " WHERE " + TABLE_INDEX + " MATCH ?"
+                    + " ORDER BY b." + COLUMN_FETCHED_AT + " DESC LIMIT " + maxResults, new String[]{match});
+            while (cursor.moveToNext()) {
+                books.add(new Book(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4), cursor.getInt(5), cursor.getInt(6),
+                        cursor.getString(7), cursor.getString(8), cursor.getString(9)));
+            }
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Problem searching the stored books for " + query, e);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        Metrics.getInstance().record(Metrics.STAGE_INDEX_SEARCH, start);
+        return books;
+    }
+
+    /**
+     * Sets the listener notified every time books have been saved in the background.
+     *
+     * @param listener is the listener, or null for none.
+     */
+    void setOnBooksSavedListener(OnBooksSavedListener listener) {
+        onBooksSavedListener = listener;
+    }
+
+    /**
+     * Stores the given books in the background, replacing the stored ones with the same volume
+     * ids, and notifies the listener once they are stored. This method can be called from any
+     * thread.
+     *
+     * @param books is the list of books.
+     */
+    void saveAsync(final List<Book> books) {
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OnBooksSavedListener listener = onBooksSavedListener;
+                if (save(books) && listener != null) listener.onBooksSaved();
+            }
+        });
+    }
+
+    /**
+     * Stores the given books, replacing the stored ones with the same volume ids, and deletes the
+     * least recently fetched books if there are too many.
+     *
+     * @param books is the list of books.
+     * @return true if the books were stored.
+     */
+    private boolean save(List<Book> books) {
+        long now = System.currentTimeMillis();
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Book book : books) {
+                    // Books without volume id can't be told apart, so they are not stored.
+                    if (book.getId().isEmpty()) continue;
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_TITLE, book.getTitle());
+                    values.put(COLUMN_AUTHORS, book.getAuthors());
+                    values.put(COLUMN_PUBLISHER, book.getPublisher());
+                    values.put(COLUMN_PUBLISHED_DATE, book.getPublishedDate());
+                    values.put(COLUMN_PAGES, book.getPages());
+                    values.put(COLUMN_STARS, book.getStars());
+                    values.put(COLUMN_DESCRIPTION, book.getDescription());
+                    values.put(COLUMN_IMAGE_URL, book.getImageUrl());
+                    values.put(COLUMN_URL, book.getUrl());
+                    values.put(COLUMN_FETCHED_AT, now);
+                    // Update rather than replace, so the triggers keep the index in sync.
+                    String[] whereArgs = {book.getId()};
+                    if (db.update(TABLE_BOOKS, values, COLUMN_VOLUME_ID + " = ?", whereArgs) == 0) {
+                        values.put(COLUMN_VOLUME_ID, book.getId());
+                        db.insert(TABLE_BOOKS, null, values);
+                    }
+                }
+                db.execSQL("DELETE FROM " + TABLE_BOOKS + " WHERE rowid IN (SELECT rowid FROM "
+                        + TABLE_BOOKS + " ORDER BY " + COLUMN_FETCHED_AT + " DESC LIMIT -1 OFFSET " + MAX_BOOKS + ")");
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return true;
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Problem saving the fetched books", e);
+            return false;
+        }
+    }
+
+    /**
+     * Adds a search to the history, or counts one more use of it, and deletes the least recently
+     * used searches if there are too many. Searches differing only in case are kept once.
+     *
+     * @param query is the search string.
+     * @return the search string as recorded in the history, or null if it was not recorded.
+     */
+    String recordQuery(String query) {
+        String key = query.trim().toLowerCase(Locale.ROOT);
+        if (key.isEmpty()) return null;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.execSQL("UPDATE " + TABLE_HISTORY + " SET " + COLUMN_USES + " = " + COLUMN_USES
+                        + " + 1, " + COLUMN_USED_AT + " = ? WHERE " + COLUMN_QUERY + " = ?",
+                        new Object[]{System.currentTimeMillis(), key});
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_QUERY, key);
+                values.put(COLUMN_USES, 1);
+                values.put(COLUMN_USED_AT, System.currentTimeMillis());
+                db.insertWithOnConflict(TABLE_HISTORY, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                db.execSQL("DELETE FROM " + TABLE_HISTORY + " WHERE rowid IN (SELECT rowid FROM "
+                        + TABLE_HISTORY + " ORDER BY " + COLUMN_USED_AT + " DESC LIMIT -1 OFFSET " + MAX_QUERIES + ")");
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return key;
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Problem recording the search " + query, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the searches of the history, with the number of times they were made.
+     *
+     * @return a new map with the number of uses, by search string.
+     */
+    Map<String, Integer> getQueryHistory() {
+        Map<String, Integer> queries = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().query(TABLE_HISTORY, new String[]{COLUMN_QUERY, COLUMN_USES},
+                    null, null, null, null, null);
+            while (cursor.moveToNext()) queries.put(cursor.getString(0), cursor.getInt(1));
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Problem reading the history of searches", e);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return queries;
+    }
+
+    /**
+     * Returns the titles and the authors of the stored books, with the number of books they
+     * appear in. Authors are counted one by one.
+     *
+     * @return a new map with the number of books, by title or author.
+     */
+    Map<String, Integer> getBookTerms() {
+        Map<String, Integer> terms = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().query(TABLE_BOOKS, new String[]{COLUMN_TITLE, COLUMN_AUTHORS},
+                    null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                count(terms, cursor.getString(0));
+                for (String author : cursor.getString(1).split(",")) count(terms, author.trim());
+            }
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Problem reading the titles and authors of the stored books", e);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return terms;
+    }
+
+    /**
+     * Counts one more appearance of a term, unless it is empty.
+     */
+    private static void count(Map<String, Integer> terms, String term) {
+        if (term.isEmpty()) return;
+        Integer count = terms.get(term);
+        terms.put(term, count == null ? 1 : count + 1);
+    }
+
+    @Override
+    public void trimMemory(float keepFraction) {
+        // Releases the pages cached by SQLite that are not in use by a statement.
+        SQLiteDatabase.releaseMemory();
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        // The page cache is bounded by SQLite, and measuring it runs queries, so it is not counted.
+        return 0;
+    }
+
+    /**
+     * Returns the FTS expression matching all the words of the given search string as prefixes,
+     * without any of the operators of the FTS query syntax. Words are lower-cased, so they are not
+     * taken for the AND, OR and NOT operators.
+     *
+     * @param query is the search string.
+     * @return the expression, or "" if the search string has no words.
+     */
+    private static String toMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) continue;
+            if (match.length() > 0) match.append(' ');
+            match.append(word.toLowerCase(Locale.ROOT)).append('*');
+        }
+        return match.toString();
+    }
+}
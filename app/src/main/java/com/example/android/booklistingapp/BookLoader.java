@@ -17,29 +17,100 @@ package com.example.android.booklistingapp;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.OnBookParsedListener;
+import com.example.android.booklistingapp.core.VolumesQuery;
 
 /**
  * Loads a list of books by using an AsyncTask to perform the network request to the given URL.
+ * <p>
+ * The loaded list is retained by the loader, so it is delivered again without any work when the
+ * activity is restarted, and kept in the {@link ResultStore}, so it is delivered instantly by new
+ * loaders for the same URL, even after the process has been killed.
+ * <p>
+ * If a batch size is given, the books parsed so far are also published every time a new batch of
+ * books is parsed from the response, before the whole response is received. {@link #isComplete()}
+ * tells partial results apart from the final one.
+ * <p>
+ * Loaders of a search string also publish the matching books stored in the {@link BookDatabase}
+ * right away, keep them after the books received from the network until the response is complete,
+ * and deliver them as the result when the network can't be reached. More results than a page are
+ * fetched in concurrent shards of a page each with {@link ShardedFetcher}. All the books received
+ * from the network are stored in the {@link BookDatabase}. The results of pinned searches, which
+ * are refreshed in the background by the {@link RefreshJobService}, are delivered from the
+ * {@link ResultStore} for longer than the others, without touching the network.
  */
 class BookLoader extends AsyncTaskLoader<List<Book>> {
-    private String url;    // Query URL.
+    private String url;         // Query URL.
+    private String query;       // Search string, or null for loading just the URL.
+    private int resultCount;    // Number of results of the search.
+    private long maxAgeMillis = ResponseCache.TTL_MILLIS;  // Maximum age of a stored result.
+    private List<Book> books;   // Last loaded list of books.
+    private CancellationSignal cancellationSignal;  // Signal for aborting the current load.
+    private final int batchSize;                    // Books per partial result, or 0 for none.
+    private final Handler mainHandler;              // Handler for publishing partial results.
+    private boolean complete = true;                // False if the last result is partial.
 
     /**
-     * Constructs a new {@link BookLoader}.
+     * Constructs a new {@link BookLoader} that only delivers complete results.
      *
      * @param context of the activity.
      * @param url     to load data from.
      */
     BookLoader(Context context, String url) {
+        this(context, url, 0);
+    }
+
+    /**
+     * Constructs a new {@link BookLoader} that also delivers partial results.
+     *
+     * @param context   of the activity.
+     * @param url       to load data from.
+     * @param batchSize is the number of newly parsed books that triggers the delivery of a partial
+     *                  result, or 0 for delivering only complete results.
+     */
+    BookLoader(Context context, String url, int batchSize) {
         super(context);
         this.url = url;
+        this.batchSize = batchSize;
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Constructs a new {@link BookLoader} for the first results of a search, which also delivers
+     * partial results and the matching stored books.
+     *
+     * @param context     of the activity.
+     * @param query       is the search string.
+     * @param resultCount is the number of results to fetch, which may be larger than a page.
+     * @param batchSize   is the number of newly parsed books that triggers the delivery of a
+     *                    partial result, or 0 for delivering only complete results.
+     */
+    BookLoader(Context context, String query, int resultCount, int batchSize) {
+        this(context, VolumesQuery.buildUrl(query, 0, resultCount), batchSize);
+        this.query = query;
+        this.resultCount = resultCount;
+        if (PinnedSearches.getInstance(context).isPinned(query)) maxAgeMillis = ResultStore.WARM_TTL_MILLIS;
     }
 
     @Override
     protected void onStartLoading() {
-        forceLoad();
+        // Deliver the retained list right away, if there is one.
+        if (books == null && url != null) books = ResultStore.getInstance(getContext()).getFromMemory(url, maxAgeMillis);
+        if (books != null) deliverResult(books);
+
+        if (books == null || takeContentChanged()) forceLoad();
     }
 
     /**
@@ -49,7 +120,136 @@ class BookLoader extends AsyncTaskLoader<List<Book>> {
     public List<Book> loadInBackground() {
         if (url == null) return null;
 
-        // Perform the network request, parse the response, and extract a list of books.
-        return QueryUtils.fetchBookData(url);
+        // Use the snapshot of a previous load of the same URL, if there is a fresh one, or a warm
+        // one for a pinned search.
+        ResultStore resultStore = ResultStore.getInstance(getContext());
+        List<Book> result = resultStore.get(url, maxAgeMillis);
+        if (result != null) return result;
+
+        final CancellationSignal signal = new CancellationSignal();
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) throw new OperationCanceledException();
+            cancellationSignal = signal;
+        }
+        try {
+            // Show the matching stored books while the network responds.
+            BookDatabase bookDatabase = BookDatabase.getInstance(getContext());
+            final List<Book> stored = query == null ? Collections.<Book>emptyList() : bookDatabase.search(query, resultCount);
+            if (batchSize > 0 && !stored.isEmpty()) {
+                publishPartialResult(Collections.unmodifiableList(stored), signal);
+            }
+
+            // Perform the network request (or read the cached response), parse the response, and
+            // extract a list of books, publishing it every time a batch of books has been parsed,
+            // followed by the stored books not received yet.
+            final List<Book> parsed = new ArrayList<>();
+            OnBookParsedListener listener = new OnBookParsedListener() {
+                @Override
+                public void onBookParsed(Book book) {
+                    parsed.add(book);
+                    if (batchSize > 0 && parsed.size() % batchSize == 0) {
+                        publishPartialResult(Collections.unmodifiableList(withStored(parsed, stored)), signal);
+                    }
+                }
+            };
+            ResponseCache responseCache = ResponseCache.getInstance(getContext());
+            boolean served;
+            if (query != null && resultCount > VolumesQuery.MAX_RESULTS) {
+                served = ShardedFetcher.fetch(responseCache, query, resultCount, VolumesQuery.MAX_RESULTS, listener, signal);
+            } else {
+                served = QueryUtils.fetchBookData(responseCache, url, listener, signal);
+            }
+
+            // A request that failed partway delivers the books received so far, but they are not
+            // kept, as they are not the complete result. A failed request delivers null rather
+            // than an empty list, so it is not taken for the end of the results.
+            if (!served) {
+                if (!parsed.isEmpty()) return withStored(parsed, stored);
+                return stored.isEmpty() ? null : stored;
+            }
+
+            // Without results from the network, the stored books are better than nothing. They
+            // are not kept in the result store, so the network is tried again next time.
+            if (parsed.isEmpty()) return stored.isEmpty() ? parsed : stored;
+            resultStore.put(url, parsed);
+            bookDatabase.saveAsync(parsed);
+            return parsed;
+        } finally {
+            synchronized (this) {
+                cancellationSignal = null;
+            }
+        }
+    }
+
+    /**
+     * Called on the main thread when the load is superseded by a new one. Aborts the request in
+     * progress, closing its connection, so it doesn't keep using network and CPU.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (cancellationSignal != null) cancellationSignal.cancel();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<Book> data) {
+        // Retain the list, so it can be delivered again when the loader is restarted.
+        books = data;
+        complete = true;
+        if (isStarted()) super.deliverResult(data);
+    }
+
+    /**
+     * Returns true if the last delivered result is the complete list of books, or false if it is a
+     * partial result and more books are on their way.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Called on a background thread for delivering the books parsed so far on the main thread. The
+     * partial result is not retained, and it is dropped if the load is cancelled in the meantime.
+     * It is always delivered before the final result, as both are posted to the main thread.
+     *
+     * @param partial is the list of books parsed so far.
+     * @param signal  is the signal of the load that parsed them.
+     */
+    private void publishPartialResult(final List<Book> partial, final CancellationSignal signal) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (signal.isCanceled() || !isStarted() || isAbandoned()) return;
+                complete = false;
+                BookLoader.super.deliverResult(partial);
+            }
+        });
+    }
+
+    /**
+     * Returns the books parsed so far followed by the stored books that have not been parsed yet.
+     *
+     * @param parsed is the list of books parsed so far.
+     * @param stored is the list of matching stored books.
+     * @return a new list of books.
+     */
+    private static List<Book> withStored(List<Book> parsed, List<Book> stored) {
+        List<Book> books = new ArrayList<>(parsed);
+        if (stored.isEmpty()) return books;
+        Set<String> ids = new HashSet<>();
+        for (Book book : parsed) ids.add(book.getId());
+        for (Book book : stored) {
+            if (!ids.contains(book.getId())) books.add(book);
+        }
+        return books;
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+        books = null;
     }
 }
@@ -23,41 +23,106 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Parcelable;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.KeyEvent;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.AdapterView;
-import android.widget.EditText;
+import android.widget.AutoCompleteTextView;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.BookFilter;
+import com.example.android.booklistingapp.core.SortOrder;
+import com.example.android.booklistingapp.core.VolumesQuery;
 
 public class BooksActivity extends AppCompatActivity implements LoaderCallbacks<List<Book>> {
     private static final int BOOK_LOADER_ID = 1;    // Constant value for the book loader ID.
+    private static final int PAGE_LOADER_ID = 2;    // Constant value for the next pages loader ID.
+    private static final String START_INDEX = "startIndex";     // Loader argument.
 
     // Using the ButterKnife library for view injection.
     @BindView(R.id.list)
-    ListView bookListView;
+    RecyclerView bookListView;
     @BindView(R.id.loading_indicator)
     View loadingIndicator;
     @BindView(R.id.empty_view)
     TextView mEmptyStateTextView;
     @BindView(R.id.search_edittext2)
-    EditText searchEditText;
+    AutoCompleteTextView searchEditText;
     @BindView(R.id.search_button2)
     ImageView searchButton;
 
     private BookAdapter mAdapter;                   // Adapter for the list of books.
+    private PagedBookList pagedBooks;               // Window of pages of results being displayed.
+    private List<Book> firstPage;                   // First page the window was built from.
     private String searchString = "";               // String for searching on Google Books.
-    private String url = "";                        // Url for getting the JSON document from Google Books.
+    private int pageSize;                           // Number of results per page.
+    private int firstPageSize;                      // Number of results of the first page.
+    private boolean moreResults;                    // True if more results are fetched at once.
+    private int prefetchDistance;                   // Rows before the end for fetching a new page.
+    private int pageRequestStartIndex = -1;         // Start index of the page being fetched, or -1.
+    private boolean firstPageComplete;              // False while the first page is partial.
+    private LinearLayoutManager layoutManager;      // Layout manager of the list of books.
+    private final Handler debounceHandler = new Handler();  // Handler for delaying searches.
+    private JankMonitor jankMonitor;                // Monitor of the smoothness, or null.
+
+    // Checked items of the menus for sorting and filtering the results.
+    private int sortItemId = R.id.sort_relevance;
+    private int ratingItemId = R.id.filter_any_rating;
+    private int lengthItemId = R.id.filter_any_length;
+    private int dateItemId = R.id.filter_any_date;
+
+    // Run every time the displayed list is updated.
+    private final Runnable onListUpdated = new Runnable() {
+        @Override
+        public void run() {
+            mEmptyStateTextView.setVisibility(mAdapter.isEmpty() ? View.VISIBLE : View.GONE);
+            if (jankMonitor != null) jankMonitor.onListUpdated();
+            // The user may have reached the end of the list while it was being received.
+            prefetchPages();
+        }
+    };
+
+    // Search performed when the user stops typing, in search-as-you-type mode.
+    private final Runnable debouncedSearch = new Runnable() {
+        @Override
+        public void run() {
+            String query = searchEditText.getText().toString().trim();
+            if (query.length() >= getResources().getInteger(R.integer.search_min_length) && !query.equals(searchString)) {
+                startSearch(query);
+            }
+        }
+    };
+
+    /**
+     * The window of pages of results, kept across configuration changes together with the first
+     * page it was built from, so the pages loaded by scrolling are not lost.
+     */
+    private static class RetainedWindow {
+        private final PagedBookList pagedBooks;
+        private final List<Book> firstPage;
+
+        RetainedWindow(PagedBookList pagedBooks, List<Book> firstPage) {
+            this.pagedBooks = pagedBooks;
+            this.firstPage = firstPage;
+        }
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,48 +130,84 @@ public class BooksActivity extends AppCompatActivity implements LoaderCallbacks<
         setContentView(R.layout.books_activity);
         ButterKnife.bind(this);
 
-        // Get search string from main activity and build search url.
+        // Get search string from main activity, or the last search performed before the activity
+        // was recreated.
         searchString = getIntent().getExtras().getString("searchString");
-        url = getResources().getString(R.string.base_url, searchString);
-        searchEditText.setText(searchString);
-
-        // Find a reference to the {@link ListView} in the layout.
-        bookListView.setEmptyView(mEmptyStateTextView);
-
-        // Create a new adapter that takes an empty list of books as input.
-        mAdapter = new BookAdapter(this, new ArrayList<Book>());
+        if (savedInstanceState != null) {
+            searchString = savedInstanceState.getString("searchString", searchString);
+            sortItemId = savedInstanceState.getInt("sortItemId", sortItemId);
+            ratingItemId = savedInstanceState.getInt("ratingItemId", ratingItemId);
+            lengthItemId = savedInstanceState.getInt("lengthItemId", lengthItemId);
+            dateItemId = savedInstanceState.getInt("dateItemId", dateItemId);
+            moreResults = savedInstanceState.getBoolean("moreResults", moreResults);
+        }
+        // Don't pop up the suggestions for the search being displayed.
+        searchEditText.setText(searchString, false);
 
-        // Set the adapter on the {@link ListView} so the list can be populated in the user
-        // interface.
-        bookListView.setAdapter(mAdapter);
+        // Set up the window of pages of results, or keep the one displayed before the activity was
+        // recreated.
+        pageSize = getResources().getInteger(R.integer.page_size);
+        firstPageSize = getFirstPageSize();
+        prefetchDistance = getResources().getInteger(R.integer.page_prefetch_distance);
+        RetainedWindow retainedWindow = (RetainedWindow) getLastCustomNonConfigurationInstance();
+        if (retainedWindow != null) {
+            pagedBooks = retainedWindow.pagedBooks;
+            firstPage = retainedWindow.firstPage;
+        } else {
+            pagedBooks = new PagedBookList(pageSize, getResources().getInteger(R.integer.max_loaded_pages));
+        }
 
-        // Set an item click listener on the ListView, which sends an intent to a web browser
-        // to open a website with more information about the selected book.
-        bookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Create a new adapter with an empty list of books, which sends an intent to a web browser
+        // to open a website with more information about the book clicked by the user.
+        mAdapter = new BookAdapter(this, new BookAdapter.OnBookClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
+            public void onBookClick(Book book) {
                 // Create a new intent to view the book URI and send the intent to launch a new
                 // activity.
-                Uri bookUri = Uri.parse(mAdapter.getItem(position).getUrl());
+                Uri bookUri = Uri.parse(book.getUrl());
                 Intent websiteIntent = new Intent(Intent.ACTION_VIEW, bookUri);
                 startActivity(websiteIntent);
             }
         });
 
-        // If there is a network connection, fetch data
-        ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
-        if (networkInfo != null && networkInfo.isConnected()) {
-            // Initialize the loader. Pass in the int ID constant defined above and pass in null for
-            // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface).
-            getLoaderManager().initLoader(BOOK_LOADER_ID, null, this);
-        } else {
-            // Otherwise, display error.
-            loadingIndicator.setVisibility(View.GONE);
-            mEmptyStateTextView.setText(R.string.no_internet_connection);
+        // Set the adapter on the {@link RecyclerView} so the list can be populated in the user
+        // interface.
+        mAdapter.setArrangement(buildFilter(), getSortOrder(), null);
+        layoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(layoutManager);
+        bookListView.setHasFixedSize(true);
+        bookListView.setAdapter(mAdapter);
+
+        // Fetch the next page of results when the user scrolls near the end of the list, and the
+        // previous one when the user scrolls back near the beginning of the window.
+        bookListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                prefetchPages();
+            }
+        });
+
+        // Download the covers of the visible rows first, and prefetch the ones of the rows ahead.
+        bookListView.addOnScrollListener(new CoverPrefetcher(this, layoutManager, mAdapter));
+
+        // Measure the frame times and the binds while scrolling, in debug and internal builds.
+        if (JankMonitor.isEnabled(this)) {
+            JankMonitor.enableStrictMode(this);
+            jankMonitor = new JankMonitor(this);
+            bookListView.addOnScrollListener(jankMonitor);
+            mAdapter.setJankMonitor(jankMonitor);
         }
 
+        // A page loader retained from a previous instance of this activity would deliver its
+        // results to that instance, so start from scratch.
+        getLoaderManager().destroyLoader(PAGE_LOADER_ID);
+
+        // Initialize the loader. Pass in the int ID constant defined above and pass in null for
+        // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
+        // because this activity implements the LoaderCallbacks interface). Without a network
+        // connection, the loader still finds the matching books stored on the device.
+        getLoaderManager().initLoader(BOOK_LOADER_ID, null, this);
+
         // Set onClick behaviour for the search button.
         searchButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -130,14 +231,46 @@ public class BooksActivity extends AppCompatActivity implements LoaderCallbacks<
                 return false;
             }
         });
+
+        // Suggest past searches and known titles and authors while typing, and search as soon as
+        // one of them is picked.
+        searchEditText.setAdapter(new SuggestionAdapter(this));
+        searchEditText.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                search();
+            }
+        });
+
+        // In search-as-you-type mode, perform a new search every time the user stops typing for a
+        // moment. Searches superseded by newer ones are cancelled by the loader manager.
+        if (getResources().getBoolean(R.bool.search_as_you_type)) {
+            final int debounceMillis = getResources().getInteger(R.integer.search_debounce_millis);
+            searchEditText.addTextChangedListener(new TextWatcher() {
+                @Override
+                public void beforeTextChanged(CharSequence charSequence, int start, int count, int after) {
+                }
+
+                @Override
+                public void onTextChanged(CharSequence charSequence, int start, int before, int count) {
+                }
+
+                @Override
+                public void afterTextChanged(Editable editable) {
+                    debounceHandler.removeCallbacks(debouncedSearch);
+                    debounceHandler.postDelayed(debouncedSearch, debounceMillis);
+                }
+            });
+        }
     }
 
     /**
      * Order a new search from the string typed on the edit text.
      */
     void search() {
-        searchString = searchEditText.getText().toString();
-        if (searchString.isEmpty()) {
+        debounceHandler.removeCallbacks(debouncedSearch);
+        String query = searchEditText.getText().toString();
+        if (query.isEmpty()) {
             // Search string can not be empty.
             Toast toast = Toast.makeText(getApplicationContext(), R.string.empty_search, Toast.LENGTH_SHORT);
             toast.show();
@@ -146,45 +279,278 @@ public class BooksActivity extends AppCompatActivity implements LoaderCallbacks<
             InputMethodManager inputMethodManager = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
             inputMethodManager.hideSoftInputFromWindow(searchEditText.getWindowToken(), 0);
 
-            // Restart loader to perform the new search.
-            url = getResources().getString(R.string.base_url, searchString);
-            mAdapter.clear();
-            mEmptyStateTextView.setVisibility(View.GONE);
-            loadingIndicator.setVisibility(View.VISIBLE);
-            getLoaderManager().restartLoader(BOOK_LOADER_ID, null, BooksActivity.this);
+            // Only the searches ordered explicitly go to the history, not the ones typed halfway.
+            QueryHistory.getInstance(this).record(query);
+            startSearch(query);
         }
     }
 
+    /**
+     * Perform a new search, cancelling the search in progress and its pending cover downloads.
+     *
+     * @param query is the search string.
+     */
+    private void startSearch(String query) {
+        searchString = query;
+
+        // Restart loader to perform the new search.
+        getLoaderManager().destroyLoader(PAGE_LOADER_ID);
+        pageRequestStartIndex = -1;
+        firstPageComplete = false;
+        firstPage = null;
+        pagedBooks.clear();
+        mAdapter.cancelCoverLoads();
+        mAdapter.clear();
+        mEmptyStateTextView.setVisibility(View.GONE);
+        loadingIndicator.setVisibility(View.VISIBLE);
+        getLoaderManager().restartLoader(BOOK_LOADER_ID, null, BooksActivity.this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        debounceHandler.removeCallbacks(debouncedSearch);
+        // Stop downloading covers for a list that is not going to be displayed anymore.
+        mAdapter.release();
+        if (jankMonitor != null) {
+            jankMonitor.stop();
+        }
+    }
+
+    /**
+     * Returns true if there is a network connection.
+     */
+    private boolean isConnected() {
+        ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    /**
+     * Fetch the next page of results if the user is near the end of the list, or the previous one
+     * if the user is near the beginning of the window.
+     */
+    private void prefetchPages() {
+        int totalItemCount = layoutManager.getItemCount();
+        if (totalItemCount == 0) return;
+        int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+        int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+        if (lastVisibleItem >= totalItemCount - 1 - prefetchDistance) {
+            loadPage(pagedBooks.getNextStartIndex());
+        } else if (firstVisibleItem <= prefetchDistance) {
+            loadPage(pagedBooks.getPreviousStartIndex());
+        }
+    }
+
+    /**
+     * Fetch the page of results starting at the given index in the background, unless it is
+     * already being fetched or the first page is still being received.
+     *
+     * @param startIndex is the index of the first result of the page, or -1 for no page.
+     */
+    private void loadPage(int startIndex) {
+        if (startIndex < 0 || pageRequestStartIndex != -1 || !firstPageComplete) return;
+        pageRequestStartIndex = startIndex;
+        Bundle args = new Bundle();
+        args.putInt(START_INDEX, startIndex);
+        getLoaderManager().restartLoader(PAGE_LOADER_ID, args, this);
+    }
+
+    /**
+     * Displays the books of the current window of pages. Only the rows added or removed are
+     * notified to the list, so it keeps the scroll position on the same book.
+     */
+    private void updateList() {
+        mAdapter.submitList(pagedBooks.getBooks(), onListUpdated);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.books_menu, menu);
+        menu.findItem(sortItemId).setChecked(true);
+        menu.findItem(ratingItemId).setChecked(true);
+        menu.findItem(lengthItemId).setChecked(true);
+        menu.findItem(dateItemId).setChecked(true);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_pin).setChecked(PinnedSearches.getInstance(this).isPinned(searchString));
+        menu.findItem(R.id.action_more_results).setChecked(moreResults);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_pin) {
+            // Pinned searches are refreshed in the background, so they open instantly.
+            PinnedSearches pinnedSearches = PinnedSearches.getInstance(this);
+            if (item.isChecked()) {
+                pinnedSearches.unpin(searchString);
+            } else {
+                pinnedSearches.pin(searchString);
+            }
+            item.setChecked(!item.isChecked());
+            return true;
+        }
+        if (item.getItemId() == R.id.action_more_results) {
+            // Fetch the search again with the new number of results.
+            moreResults = !moreResults;
+            item.setChecked(moreResults);
+            firstPageSize = getFirstPageSize();
+            startSearch(searchString);
+            return true;
+        }
+
+        switch (item.getGroupId()) {
+            case R.id.sort_group:
+                sortItemId = item.getItemId();
+                break;
+            case R.id.rating_group:
+                ratingItemId = item.getItemId();
+                break;
+            case R.id.length_group:
+                lengthItemId = item.getItemId();
+                break;
+            case R.id.date_group:
+                dateItemId = item.getItemId();
+                break;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+        item.setChecked(true);
+
+        // Sort and filter the loaded books again, without fetching them, and go back to the top.
+        mAdapter.setArrangement(buildFilter(), getSortOrder(), new Runnable() {
+            @Override
+            public void run() {
+                layoutManager.scrollToPosition(0);
+                onListUpdated.run();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returns the number of results of the first page of a search: a single page, unless the user
+     * asked for more results at once, which are fetched in concurrent shards.
+     */
+    private int getFirstPageSize() {
+        if (!moreResults) return PinnedSearches.firstPageResults(this);
+        return Math.max(pageSize, getResources().getInteger(R.integer.more_results));
+    }
+
+    /**
+     * Returns the order of the results checked in the sort menu.
+     */
+    private SortOrder getSortOrder() {
+        switch (sortItemId) {
+            case R.id.sort_rating:
+                return SortOrder.RATING;
+            case R.id.sort_newest:
+                return SortOrder.NEWEST;
+            case R.id.sort_oldest:
+                return SortOrder.OLDEST;
+            case R.id.sort_shortest:
+                return SortOrder.SHORTEST;
+            case R.id.sort_longest:
+                return SortOrder.LONGEST;
+            case R.id.sort_publisher:
+                return SortOrder.PUBLISHER;
+            default:
+                return SortOrder.RELEVANCE;
+        }
+    }
+
+    /**
+     * Returns the filter of the results checked in the filter menu.
+     */
+    private BookFilter buildFilter() {
+        BookFilter filter = new BookFilter();
+        if (ratingItemId == R.id.filter_three_stars) filter.minStars(3);
+        else if (ratingItemId == R.id.filter_four_stars) filter.minStars(4);
+        if (lengthItemId == R.id.filter_short) {
+            filter.pages(1, getResources().getInteger(R.integer.short_book_max_pages));
+        } else if (lengthItemId == R.id.filter_long) {
+            filter.pages(getResources().getInteger(R.integer.long_book_min_pages), Integer.MAX_VALUE);
+        }
+        if (dateItemId == R.id.filter_recent) {
+            int year = Calendar.getInstance().get(Calendar.YEAR);
+            filter.years(year - getResources().getInteger(R.integer.recent_years), year);
+        }
+        return filter;
+    }
+
     @Override
     public Loader<List<Book>> onCreateLoader(int i, Bundle bundle) {
-        // Create a new loader for the given URL.
-        return new BookLoader(this, url);
+        // Create a new loader for the URL of the requested page.
+        if (i == PAGE_LOADER_ID) {
+            int startIndex = bundle.getInt(START_INDEX);
+            return new BookLoader(this, VolumesQuery.buildUrl(searchString, startIndex, pageSize));
+        }
+
+        // Display the matching stored books and then the first rows of a new search as soon as
+        // they are parsed. A first page larger than a page of the API is fetched in concurrent
+        // shards.
+        return new BookLoader(this, searchString, firstPageSize, getResources().getInteger(R.integer.result_batch_size));
     }
 
     @Override
     public void onLoadFinished(Loader<List<Book>> loader, List<Book> books) {
-        // Hide loading indicator because the data has been loaded.
-        loadingIndicator.setVisibility(View.GONE);
+        if (loader.getId() == PAGE_LOADER_ID) {
+            // Add the new page at the end or at the beginning of the window.
+            int startIndex = pageRequestStartIndex;
+            pageRequestStartIndex = -1;
+            if (startIndex == pagedBooks.getNextStartIndex()) {
+                pagedBooks.append(startIndex, books);
+                updateList();
+            } else if (startIndex == pagedBooks.getPreviousStartIndex()) {
+                pagedBooks.prepend(startIndex, books);
+                updateList();
+            }
+            return;
+        }
 
-        // Set empty state text to display "No results found for..."
-        mEmptyStateTextView.setText(getResources().getString(R.string.no_books, searchString));
+        // Hide loading indicator because the data has been loaded, or at least its first rows.
+        loadingIndicator.setVisibility(View.GONE);
 
-        // Clear the adapter of previous book data
-        mAdapter.clear();
+        // Set empty state text to display "No results found for...", or the lack of connection if
+        // nothing matched on the device either.
+        if (isConnected()) {
+            mEmptyStateTextView.setText(getResources().getString(R.string.no_books, searchString));
+        } else {
+            mEmptyStateTextView.setText(R.string.no_internet_connection);
+        }
 
-        // If there is a valid list of {@link Book}s, then add them to the adapter's data set.
-        // This will trigger the ListView to update.
-        if (books != null && !books.isEmpty()) {
-            mAdapter.addAll(books);
+        // Display the first page of results, or the part of it received so far. Rows that were
+        // already displayed are not rebound. Further pages are not fetched until the first one is
+        // complete. The loader delivers the same first page again when the activity is restarted,
+        // which keeps the pages loaded since.
+        firstPageComplete = ((BookLoader) loader).isComplete();
+        if (books != firstPage) {
+            firstPage = books;
+            pagedBooks.clear();
+            pagedBooks.append(0, firstPageSize, books);
         }
+        updateList();
     }
 
     @Override
     public void onLoaderReset(Loader<List<Book>> loader) {
         // Loader reset, so we can clear out our existing data.
+        if (loader.getId() == PAGE_LOADER_ID) return;
+        mAdapter.cancelCoverLoads();
+        firstPage = null;
+        pagedBooks.clear();
         mAdapter.clear();
     }
 
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return new RetainedWindow(pagedBooks, firstPage);
+    }
+
     /**
      * Saves the state of the app.
      *
@@ -193,8 +559,14 @@ public class BooksActivity extends AppCompatActivity implements LoaderCallbacks<
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        // Save the ListView state (includes scroll position) as a Parcelable.
-        outState.putParcelable("bookListViewState", bookListView.onSaveInstanceState());
+        // Save the list state (includes scroll position) as a Parcelable.
+        outState.putParcelable("bookListViewState", layoutManager.onSaveInstanceState());
+        outState.putString("searchString", searchString);
+        outState.putInt("sortItemId", sortItemId);
+        outState.putInt("ratingItemId", ratingItemId);
+        outState.putInt("lengthItemId", lengthItemId);
+        outState.putInt("dateItemId", dateItemId);
+        outState.putBoolean("moreResults", moreResults);
     }
 
     /**
@@ -206,8 +578,10 @@ public class BooksActivity extends AppCompatActivity implements LoaderCallbacks<
     protected void onRestoreInstanceState(Bundle savedInstanceState) {
         super.onRestoreInstanceState(savedInstanceState);
         if (savedInstanceState != null) {
-            // Restore previous state (including selected item index and scroll position).
-            bookListView.onRestoreInstanceState(savedInstanceState.getParcelable("bookListViewState"));
+            // Restore previous state (scroll position). If the results are not loaded yet, the
+            // layout manager keeps it until they are.
+            Parcelable listState = savedInstanceState.getParcelable("bookListViewState");
+            layoutManager.onRestoreInstanceState(listState);
         }
     }
 }
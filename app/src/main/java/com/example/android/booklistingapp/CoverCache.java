@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two-tier cache for the images of the covers of the books, keyed by the url of the thumbnail.
+ * <p>
+ * The first tier is a size-bounded in-memory LRU cache of decoded bitmaps. The second tier is a
+ * persistent on-disk cache of the encoded bytes, with its own byte budget, which evicts the least
+ * recently used files when the budget is exceeded. Counters of hits, misses and evictions are kept
+ * for both tiers, so the budgets can be sized properly.
+ * <p>
+ * Covers are decoded by a {@link CoverDecoder} at the size of the thumbnail view. All the decoded
+ * bitmaps share a single byte budget, a fraction of the heap that is smaller on low-RAM devices,
+ * split between the memory tier and a {@link BitmapPool} of bitmaps whose memory is reused for
+ * decoding new covers. Bitmaps are reference counted while they are displayed: a bitmap evicted
+ * from the memory tier is only pooled once every view that displays it has released it, so its
+ * pixels are never overwritten on screen.
+ * <p>
+ * The memory tier and the pool are trimmed by the {@link MemoryGovernor} when the system is short
+ * of memory: the least recently used covers are evicted, as they can be decoded again from the
+ * disk tier, and the pool is emptied, as its bitmaps are not displayed.
+ * <p>
+ * Memory lookups are cheap and can be performed on the main thread. Disk lookups and insertions
+ * must be performed on a background thread.
+ */
+final class CoverCache implements MemoryGovernor.Trimmable {
+    private static final String LOG_TAG = CoverCache.class.getSimpleName();
+
+    private static final String DISK_CACHE_DIR = "covers";              // Subdirectory of the cache dir.
+    private static final long DISK_CACHE_BYTES = 10 * 1024 * 1024;      // Budget for the disk tier.
+    private static final int BITMAP_BUDGET_FRACTION = 8;                // 1/8 of the heap for bitmaps,
+    private static final int LOW_RAM_BITMAP_BUDGET_FRACTION = 16;       // or 1/16 on low-RAM devices.
+    private static final int POOL_BUDGET_FRACTION = 4;                  // 1/4 of the budget for the pool.
+
+    private static CoverCache instance;
+
+    private final LruCache<String, Bitmap> memoryCache;     // First tier: decoded bitmaps.
+    private final BitmapPool pool;                          // Bitmaps whose memory can be reused.
+    private final CoverDecoder decoder;                     // Decoder at the size of the thumbnail.
+    private final Map<Bitmap, Integer> references;          // Number of views displaying every bitmap.
+    private final Set<Bitmap> removedWhileReferenced;       // Bitmaps to pool when released.
+    private final Object referenceLock = new Object();      // Guards the references.
+    private final MemoryGovernor memoryGovernor;            // Governor of the retained memory.
+    private final File diskCacheDir;                        // Second tier: encoded bytes.
+    private final Object diskLock = new Object();           // Guards the disk tier.
+    private long diskCacheSize = -1;                        // Bytes on disk, -1 until computed.
+
+    // Counters for sizing the cache.
+    private final AtomicInteger memoryHits = new AtomicInteger();
+    private final AtomicInteger diskHits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger memoryEvictions = new AtomicInteger();
+    private final AtomicInteger diskEvictions = new AtomicInteger();
+
+    /**
+     * Constructs a new {@link CoverCache}. Use {@link #getInstance(Context)} instead, so all the
+     * components of the app share the same cache.
+     *
+     * @param context of the app.
+     */
+    private CoverCache(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int budgetFraction = activityManager.isLowRamDevice() ? LOW_RAM_BITMAP_BUDGET_FRACTION : BITMAP_BUDGET_FRACTION;
+        int budgetBytes = (int) (Runtime.getRuntime().maxMemory() / budgetFraction);
+        int poolBytes = budgetBytes / POOL_BUDGET_FRACTION;
+
+        pool = new BitmapPool(poolBytes);
+        Resources resources = context.getResources();
+        decoder = new CoverDecoder(resources.getDimensionPixelSize(R.dimen.cover_width),
+                resources.getDimensionPixelSize(R.dimen.cover_height), pool);
+        references = new IdentityHashMap<>();
+        removedWhileReferenced = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+        memoryCache = new LruCache<String, Bitmap>(budgetBytes - poolBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                // A reused bitmap may be bigger than the image it holds.
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted) memoryEvictions.incrementAndGet();
+                if (oldValue != newValue) recycle(oldValue);
+            }
+        };
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        memoryGovernor = MemoryGovernor.getInstance(context);
+        memoryGovernor.register("covers", this);
+    }
+
+    /**
+     * Returns the cache shared by all the components of the app.
+     *
+     * @param context of the app.
+     * @return the shared {@link CoverCache}.
+     */
+    static synchronized CoverCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new CoverCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the decoded cover for the given url if it is in the memory tier. This method does
+     * not touch the disk, so it can be called from the main thread. The returned bitmap must be
+     * released with {@link #release(Bitmap)} when it is not displayed anymore.
+     *
+     * @param url is the url of the thumbnail.
+     * @return the decoded cover, or null if it is not in memory.
+     */
+    Bitmap acquireFromMemory(String url) {
+        synchronized (referenceLock) {
+            Bitmap bitmap = memoryCache.get(url);
+            if (bitmap != null) {
+                memoryHits.incrementAndGet();
+                retain(bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Returns true if the decoded cover for the given url is in the memory tier, without retaining
+     * it.
+     *
+     * @param url is the url of the thumbnail.
+     */
+    boolean isInMemory(String url) {
+        return memoryCache.get(url) != null;
+    }
+
+    /**
+     * Returns true if the encoded cover for the given url is in the disk tier. This method must be
+     * called from a background thread.
+     *
+     * @param url is the url of the thumbnail.
+     */
+    boolean isOnDisk(String url) {
+        synchronized (diskLock) {
+            return new File(diskCacheDir, IoUtils.fileNameFor(url)).isFile();
+        }
+    }
+
+    /**
+     * Returns the decoded cover for the given url, looking first in the memory tier and then in
+     * the disk tier. A cover found on disk is promoted to memory. This method must be called from
+     * a background thread. The returned bitmap must be released with {@link #release(Bitmap)} when
+     * it is not displayed anymore.
+     *
+     * @param url is the url of the thumbnail.
+     * @return the decoded cover, or null if it is not cached.
+     */
+    Bitmap acquire(String url) {
+        Bitmap bitmap = acquireFromMemory(url);
+        if (bitmap != null) return bitmap;
+
+        byte[] encoded = readFromDisk(url);
+        if (encoded != null) {
+            bitmap = decodeAndRetain(url, encoded);
+        }
+        if (bitmap != null) {
+            diskHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes a downloaded cover and stores it in both tiers. This method must be called from a
+     * background thread. The returned bitmap must be released with {@link #release(Bitmap)} when
+     * it is not displayed anymore.
+     *
+     * @param url     is the url of the thumbnail.
+     * @param encoded is the encoded image, as downloaded.
+     * @return the decoded cover, or null if the image can't be decoded.
+     */
+    Bitmap put(String url, byte[] encoded) {
+        Bitmap bitmap = decodeAndRetain(url, encoded);
+        if (bitmap != null) writeToDisk(url, encoded);
+        return bitmap;
+    }
+
+    /**
+     * Stores a downloaded cover in the disk tier only, without decoding it, for covers that are
+     * not going to be displayed soon. This method must be called from a background thread.
+     *
+     * @param url     is the url of the thumbnail.
+     * @param encoded is the encoded image, as downloaded.
+     */
+    void putOnDisk(String url, byte[] encoded) {
+        writeToDisk(url, encoded);
+    }
+
+    /**
+     * Retains a bitmap returned by this cache once more, for another view that is going to display
+     * it. The returned bitmap must be released with {@link #release(Bitmap)} on its own.
+     *
+     * @param bitmap is the bitmap, which must be retained by the caller.
+     * @return the same bitmap.
+     */
+    Bitmap reacquire(Bitmap bitmap) {
+        synchronized (referenceLock) {
+            retain(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Releases a bitmap returned by this cache, because the view that displayed it displays
+     * something else now. A bitmap that is not in the memory tier anymore is pooled once all the
+     * views that displayed it have released it.
+     *
+     * @param bitmap is the bitmap.
+     */
+    void release(Bitmap bitmap) {
+        synchronized (referenceLock) {
+            Integer count = references.get(bitmap);
+            if (count == null) return;
+            if (count > 1) {
+                references.put(bitmap, count - 1);
+            } else {
+                references.remove(bitmap);
+                if (removedWhileReferenced.remove(bitmap)) pool.put(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Decodes a cover at the size of the thumbnail and stores it in the memory tier, retained for
+     * the caller.
+     *
+     * @param url     is the url of the thumbnail.
+     * @param encoded is the encoded image.
+     * @return the decoded cover, or null if the image can't be decoded.
+     */
+    private Bitmap decodeAndRetain(String url, byte[] encoded) {
+        Bitmap bitmap = decoder.decode(encoded);
+        if (bitmap == null) return null;
+        // Retain it before it is inserted, so it is not pooled if it is evicted right away.
+        synchronized (referenceLock) {
+            retain(bitmap);
+        }
+        memoryCache.put(url, bitmap);
+        memoryGovernor.sample();
+        return bitmap;
+    }
+
+    /**
+     * Increments the number of views displaying the given bitmap. Must be called with the
+     * reference lock held.
+     */
+    private void retain(Bitmap bitmap) {
+        Integer count = references.get(bitmap);
+        references.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Pools a bitmap removed from the memory tier, or defers it until it is released if it is
+     * still displayed.
+     */
+    private void recycle(Bitmap bitmap) {
+        synchronized (referenceLock) {
+            if (references.containsKey(bitmap)) {
+                removedWhileReferenced.add(bitmap);
+            } else {
+                pool.put(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Reads the encoded cover for the given url from the disk tier, marking it as recently used.
+     *
+     * @param url is the url of the thumbnail.
+     * @return the encoded image, or null if it is not on disk.
+     */
+    private byte[] readFromDisk(String url) {
+        synchronized (diskLock) {
+            File file = new File(diskCacheDir, IoUtils.fileNameFor(url));
+            if (!file.isFile()) return null;
+
+            byte[] encoded = new byte[(int) file.length()];
+            InputStream inputStream = null;
+            try {
+                inputStream = new FileInputStream(file);
+                int offset = 0;
+                while (offset < encoded.length) {
+                    int read = inputStream.read(encoded, offset, encoded.length - offset);
+                    if (read < 0) break;
+                    offset += read;
+                }
+                if (offset < encoded.length) return null;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem reading the cached cover for " + url, e);
+                return null;
+            } finally {
+                IoUtils.closeQuietly(inputStream);
+            }
+
+            // The modification time is used as the access time for the LRU eviction.
+            file.setLastModified(System.currentTimeMillis());
+            return encoded;
+        }
+    }
+
+    /**
+     * Writes the encoded cover for the given url to the disk tier, evicting the least recently
+     * used files if the byte budget is exceeded.
+     *
+     * @param url     is the url of the thumbnail.
+     * @param encoded is the encoded image.
+     */
+    private void writeToDisk(String url, byte[] encoded) {
+        synchronized (diskLock) {
+            if (!diskCacheDir.isDirectory() && !diskCacheDir.mkdirs()) {
+                Log.e(LOG_TAG, "Problem creating the cover cache directory " + diskCacheDir);
+                return;
+            }
+            if (diskCacheSize < 0) diskCacheSize = computeDiskCacheSize();
+
+            File file = new File(diskCacheDir, IoUtils.fileNameFor(url));
+            diskCacheSize -= file.length();
+            OutputStream outputStream = null;
+            try {
+                outputStream = new FileOutputStream(file);
+                outputStream.write(encoded);
+                diskCacheSize += encoded.length;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem writing the cached cover for " + url, e);
+                file.delete();
+            } finally {
+                IoUtils.closeQuietly(outputStream);
+            }
+            trimDisk();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the disk tier fits into its byte budget.
+     */
+    private void trimDisk() {
+        if (diskCacheSize <= DISK_CACHE_BYTES) return;
+
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long lastModified1 = file1.lastModified();
+                long lastModified2 = file2.lastModified();
+                return lastModified1 < lastModified2 ? -1 : (lastModified1 == lastModified2 ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && diskCacheSize > DISK_CACHE_BYTES; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                diskCacheSize -= length;
+                diskEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the total size of the files of the disk tier.
+     *
+     * @return the size in bytes.
+     */
+    private long computeDiskCacheSize() {
+        long size = 0;
+        File[] files = diskCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) size += file.length();
+        }
+        return size;
+    }
+
+    @Override
+    public void trimMemory(float keepFraction) {
+        // Evicted bitmaps are pooled, or when they are released if they are still displayed, so
+        // the pool is emptied afterwards.
+        memoryCache.trimToSize((int) (memoryCache.maxSize() * keepFraction));
+        pool.clear();
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return memoryCache.size() + pool.getBytes();
+    }
+
+    /**
+     * Getters for the counters.
+     */
+    int getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    int getDiskHits() {
+        return diskHits.get();
+    }
+
+    int getMisses() {
+        return misses.get();
+    }
+
+    int getMemoryEvictions() {
+        return memoryEvictions.get();
+    }
+
+    int getDiskEvictions() {
+        return diskEvictions.get();
+    }
+
+    int getMemorySize() {
+        return memoryCache.size();
+    }
+
+    int getMemoryMaxSize() {
+        return memoryCache.maxSize();
+    }
+
+    long getPoolSize() {
+        return pool.getBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "CoverCache{memoryHits=" + getMemoryHits() + ", diskHits=" + getDiskHits()
+                + ", misses=" + getMisses() + ", memoryEvictions=" + getMemoryEvictions()
+                + ", diskEvictions=" + getDiskEvictions() + ", memoryBytes=" + getMemorySize()
+                + "/" + getMemoryMaxSize() + ", poolBytes=" + getPoolSize() + "}";
+    }
+}
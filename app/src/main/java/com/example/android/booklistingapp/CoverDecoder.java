@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.example.android.booklistingapp.core.Metrics;
+
+/**
+ * A {@link CoverDecoder} decodes the images of the covers of the books at the size they are
+ * displayed at, instead of at full resolution.
+ * <p>
+ * The bounds of every image are measured first, so it can be subsampled to the smallest size that
+ * still fills the target view. Images without alpha channel (JPEG) are decoded as RGB_565, which
+ * takes half the memory of ARGB_8888. The memory of bitmaps that are not used anymore is reused
+ * through a {@link BitmapPool}.
+ */
+class CoverDecoder {
+    private final int targetWidth;      // Width of the view where covers are displayed, in pixels.
+    private final int targetHeight;     // Height of the view where covers are displayed, in pixels.
+    private final BitmapPool pool;      // Pool of reusable bitmaps.
+
+    /**
+     * Constructs a new {@link CoverDecoder}.
+     *
+     * @param targetWidth  is the width of the view where covers are displayed, in pixels.
+     * @param targetHeight is the height of the view where covers are displayed, in pixels.
+     * @param pool         is the pool of reusable bitmaps.
+     */
+    CoverDecoder(int targetWidth, int targetHeight, BitmapPool pool) {
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.pool = pool;
+    }
+
+    /**
+     * Decodes an encoded image. The returned bitmap is mutable, so it can be pooled and reused
+     * later.
+     *
+     * @param encoded is the encoded image.
+     * @return the decoded bitmap, or null if the image can't be decoded.
+     */
+    Bitmap decode(byte[] encoded) {
+        long start = Metrics.now();
+        try {
+            return decodeDownsampled(encoded);
+        } finally {
+            Metrics.getInstance().record(Metrics.STAGE_COVER_DECODE, start);
+        }
+    }
+
+    /**
+     * Decodes an encoded image subsampled to the target size, reusing a pooled bitmap if there is
+     * one big enough.
+     */
+    private Bitmap decodeDownsampled(byte[] encoded) {
+        // Measure the image without allocating any pixels.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight);
+        options.inPreferredConfig = hasAlpha(options.outMimeType) ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = pool.get(width, height, options.inPreferredConfig);
+
+        try {
+            return BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap can't be reused for this image, so allocate a new one.
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        }
+    }
+
+    /**
+     * Returns the largest power of two that keeps both dimensions of the subsampled image equal or
+     * bigger than the target view, as it is displayed with "centerCrop".
+     *
+     * @param width  is the width of the image.
+     * @param height is the height of the image.
+     * @return the sample size for {@link BitmapFactory.Options#inSampleSize}.
+     */
+    private int calculateInSampleSize(int width, int height) {
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= targetWidth && height / (inSampleSize * 2) >= targetHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Returns true if images of the given type can have an alpha channel.
+     *
+     * @param mimeType is the type of the image, or null if it is unknown.
+     * @return false for JPEG images, true otherwise.
+     */
+    private static boolean hasAlpha(String mimeType) {
+        return mimeType == null || !mimeType.equals("image/jpeg");
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.support.v7.widget.RecyclerView;
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.example.android.booklistingapp.core.Book;
+
+/**
+ * A {@link CoverLoader} retrieves the images of the covers of the books through the shared
+ * {@link CoverCache}, downloading the missing ones on a bounded pool of background threads, and
+ * fills them in the list item views as they arrive. Every request is bound to an {@link ImageView},
+ * so it can be cancelled when the view is recycled for another book or when a new search is
+ * performed. The bitmap displayed by every view is released back to the cache when the view is
+ * recycled, so its memory can be reused.
+ * <p>
+ * Requests are not served in the order they are made, but by their distance to the visible rows
+ * given by {@link #setViewport(int, int, int, int)}, the rows ahead in the direction of scrolling
+ * first. Covers of the rows about to be displayed can be prefetched into the cache, and the
+ * requests for rows far away from the visible ones are cancelled. The positions of the requests
+ * follow the rows inserted, removed and moved around them through {@link #getPositionObserver()},
+ * as the rows that don't change are not bound again.
+ * <p>
+ * All the public methods of this class must be called from the main thread.
+ */
+class CoverLoader {
+    private static final int MAX_CONCURRENT_FETCHES = 4;    // Maximum number of parallel downloads.
+    private static final long KEEP_ALIVE_SECONDS = 30;      // Idle time before a thread is released.
+    private static final int BEHIND_PENALTY = 2;            // Distance factor of the rows left behind.
+
+    private final CoverCache cache;                         // Shared cache of covers.
+    private final ExecutorService executor;                 // Pool of threads for downloading covers.
+    private final Handler mainHandler;                      // Handler for posting results to the UI.
+    private final Map<ImageView, Request> pending;          // Requests in flight, by target view.
+    private final Map<String, Request> prefetches;          // Prefetches in flight, by url.
+    private final Map<ImageView, Bitmap> displayed;         // Covers retained by every view.
+    private final List<Request> queue;                      // Requests waiting for a thread.
+
+    // Visible rows and direction of scrolling, read by the threads for picking the next request.
+    private volatile int firstVisible;
+    private volatile int lastVisible = Integer.MAX_VALUE;
+    private volatile int direction;
+
+    /**
+     * A request for the cover of the book at a position of the list, for a view or for the cache.
+     */
+    private class Request {
+        private final CancellationSignal signal = new CancellationSignal();
+        private final Book book;
+        private volatile int position;              // Row of the book, or NO_POSITION if removed.
+        private final ImageView imageView;          // Target view, or null for a prefetch.
+
+        Request(Book book, int position, ImageView imageView) {
+            this.book = book;
+            this.position = position;
+            this.imageView = imageView;
+        }
+
+        void cancel() {
+            signal.cancel();
+            synchronized (queue) {
+                queue.remove(this);
+            }
+        }
+
+        /**
+         * Retrieves the cover, on a background thread, and delivers it on the main thread.
+         */
+        void perform() {
+            final Bitmap bitmap;
+            try {
+                bitmap = QueryUtils.fetchCover(cache, book.getImageUrl(), signal);
+            } catch (OperationCanceledException e) {
+                return;
+            }
+            if (imageView == null) {
+                // The cover stays in the memory tier of the cache until it is displayed.
+                if (bitmap != null) cache.release(bitmap);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (prefetches.get(book.getImageUrl()) == Request.this) {
+                            prefetches.remove(book.getImageUrl());
+                        }
+                    }
+                });
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The view may have been recycled for another book in the meantime, or this
+                    // request cancelled and replaced by a new one for the same book.
+                    if (pending.get(imageView) == Request.this && imageView.getTag() == book) {
+                        pending.remove(imageView);
+                        if (bitmap != null) {
+                            bind(imageView, bitmap);
+                        }
+                    } else if (bitmap != null) {
+                        cache.release(bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    // Observer of the adapter of the list, for the rows that change position without being bound
+    // again.
+    private final RecyclerView.AdapterDataObserver positionObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            offsetPositions(positionStart, Integer.MAX_VALUE, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            for (Request request : requests()) {
+                if (request.position >= positionStart && request.position < positionStart + itemCount) {
+                    request.position = RecyclerView.NO_POSITION;
+                }
+            }
+            offsetPositions(positionStart + itemCount, Integer.MAX_VALUE, -itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            List<Request> moved = new ArrayList<>();
+            for (Request request : requests()) {
+                if (request.position >= fromPosition && request.position < fromPosition + itemCount) {
+                    moved.add(request);
+                }
+            }
+            if (fromPosition < toPosition) {
+                offsetPositions(fromPosition + itemCount, toPosition + itemCount, -itemCount);
+            } else {
+                offsetPositions(toPosition, fromPosition, itemCount);
+            }
+            for (Request request : moved) request.position += toPosition - fromPosition;
+        }
+    };
+
+    // Task run by the threads for every request: performs the closest request waiting.
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            Request request = takeClosest();
+            if (request != null) request.perform();
+        }
+    };
+
+    /**
+     * Constructs a new {@link CoverLoader}.
+     *
+     * @param context of the app.
+     */
+    CoverLoader(Context context) {
+        cache = CoverCache.getInstance(context);
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_FETCHES,
+                MAX_CONCURRENT_FETCHES, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        executor = threadPoolExecutor;
+        mainHandler = new Handler(Looper.getMainLooper());
+        pending = new HashMap<>();
+        prefetches = new HashMap<>();
+        displayed = new HashMap<>();
+        queue = new ArrayList<>();
+    }
+
+    /**
+     * Loads the cover of the given book into the given view. If the cover is in the memory cache,
+     * it is displayed immediately. Otherwise, the default cover is displayed until the cover is
+     * read from disk or downloaded. Any previous request for the same view is cancelled.
+     *
+     * @param book      is the book whose cover is going to be loaded.
+     * @param position  is the position of the book in the list.
+     * @param imageView is the view where the cover is going to be displayed.
+     */
+    void load(Book book, int position, ImageView imageView) {
+        cancel(imageView);
+        imageView.setTag(book);
+
+        imageView.setImageResource(R.drawable.default_cover);
+        unbind(imageView);
+        if (book.getImageUrl().isEmpty()) {
+            return;
+        }
+        Bitmap image = cache.acquireFromMemory(book.getImageUrl());
+        if (image != null) {
+            bind(imageView, image);
+            return;
+        }
+
+        // A prefetch still waiting for a thread is superseded by this request. One already
+        // running is joined by it.
+        Request prefetch = prefetches.get(book.getImageUrl());
+        if (prefetch != null && dequeue(prefetch)) {
+            prefetches.remove(book.getImageUrl());
+        }
+
+        Request request = new Request(book, position, imageView);
+        pending.put(imageView, request);
+        enqueue(request);
+    }
+
+    /**
+     * Loads the cover of the given book into the given view, unless the view already displays it
+     * or is waiting for it. For views that come back on screen without being bound again, whose
+     * request may have been cancelled while they were away.
+     *
+     * @param book      is the book whose cover is going to be loaded.
+     * @param position  is the position of the book in the list.
+     * @param imageView is the view where the cover is going to be displayed.
+     */
+    void resume(Book book, int position, ImageView imageView) {
+        if (imageView.getTag() == book && (pending.containsKey(imageView) || displayed.containsKey(imageView))) {
+            return;
+        }
+        load(book, position, imageView);
+    }
+
+    /**
+     * Retrieves the cover of the given book into the memory cache, without displaying it, so it
+     * can be displayed right away when its row is bound.
+     *
+     * @param book     is the book whose cover is going to be prefetched.
+     * @param position is the position of the book in the list.
+     */
+    void prefetch(Book book, int position) {
+        String url = book.getImageUrl();
+        if (url.isEmpty() || prefetches.containsKey(url) || cache.isInMemory(url)) return;
+        Request request = new Request(book, position, null);
+        prefetches.put(url, request);
+        enqueue(request);
+    }
+
+    /**
+     * Sets the rows that are visible and the direction of scrolling, which decide the order in
+     * which the requests are served, and cancels the requests for the rows that are too far away
+     * from the visible ones. Views whose request is cancelled get it again if they come back on
+     * screen, through {@link #resume(Book, int, ImageView)}.
+     *
+     * @param first        is the position of the first visible row.
+     * @param last         is the position of the last visible row.
+     * @param scrolling    is positive when scrolling down, negative when scrolling up, or 0.
+     * @param keepDistance is the number of rows around the visible ones whose requests are kept.
+     */
+    void setViewport(int first, int last, int scrolling, int keepDistance) {
+        firstVisible = first;
+        lastVisible = last;
+        direction = scrolling;
+
+        Iterator<Map.Entry<ImageView, Request>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ImageView, Request> entry = iterator.next();
+            if (isFar(entry.getValue(), keepDistance)) {
+                entry.getValue().cancel();
+                entry.getKey().setTag(null);
+                iterator.remove();
+            }
+        }
+        Iterator<Request> prefetchIterator = prefetches.values().iterator();
+        while (prefetchIterator.hasNext()) {
+            Request request = prefetchIterator.next();
+            if (isFar(request, keepDistance)) {
+                request.cancel();
+                prefetchIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the observer that keeps the positions of the requests in step with the rows of the
+     * list. It must be registered with the adapter of the list.
+     */
+    RecyclerView.AdapterDataObserver getPositionObserver() {
+        return positionObserver;
+    }
+
+    /**
+     * Cancels the pending request for the given view, if any.
+     *
+     * @param imageView is the view whose request is going to be cancelled.
+     */
+    void cancel(ImageView imageView) {
+        Request request = pending.remove(imageView);
+        if (request != null) {
+            request.cancel();
+        }
+        imageView.setTag(null);
+    }
+
+    /**
+     * Cancels the pending request for the given view and releases the cover it displays, because
+     * the view has scrolled out of the screen.
+     *
+     * @param imageView is the recycled view.
+     */
+    void recycle(ImageView imageView) {
+        cancel(imageView);
+        imageView.setImageResource(R.drawable.default_cover);
+        unbind(imageView);
+    }
+
+    /**
+     * Cancels all the pending requests and prefetches, closing the connections of the downloads
+     * in progress.
+     */
+    void cancelAll() {
+        Iterator<Map.Entry<ImageView, Request>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ImageView, Request> entry = iterator.next();
+            entry.getValue().cancel();
+            entry.getKey().setTag(null);
+            iterator.remove();
+        }
+        for (Request request : prefetches.values()) request.cancel();
+        prefetches.clear();
+    }
+
+    /**
+     * Cancels all the pending requests, releases the displayed covers and releases the threads.
+     * This object can not be used anymore after calling this method.
+     */
+    void shutdown() {
+        cancelAll();
+        executor.shutdownNow();
+        for (Map.Entry<ImageView, Bitmap> entry : displayed.entrySet()) {
+            entry.getKey().setImageResource(R.drawable.default_cover);
+            cache.release(entry.getValue());
+        }
+        displayed.clear();
+    }
+
+    /**
+     * Adds a request to the queue, and a task for serving it to the pool of threads.
+     */
+    private void enqueue(Request request) {
+        synchronized (queue) {
+            queue.add(request);
+        }
+        executor.execute(worker);
+    }
+
+    /**
+     * Removes a request from the queue, if it is still waiting for a thread.
+     *
+     * @return true if the request was waiting, false if it has been taken by a thread.
+     */
+    private boolean dequeue(Request request) {
+        synchronized (queue) {
+            return queue.remove(request);
+        }
+    }
+
+    /**
+     * Returns the requests for views and the prefetches in flight.
+     */
+    private List<Request> requests() {
+        List<Request> requests = new ArrayList<>(pending.values());
+        requests.addAll(prefetches.values());
+        return requests;
+    }
+
+    /**
+     * Adds an offset to the positions of the requests for the rows from start, inclusive, to end,
+     * exclusive.
+     */
+    private void offsetPositions(int start, int end, int offset) {
+        for (Request request : requests()) {
+            if (request.position >= start && request.position < end) request.position += offset;
+        }
+    }
+
+    /**
+     * Removes and returns the waiting request closest to the visible rows, on a background thread.
+     * There are never many requests waiting, so they are just scanned.
+     *
+     * @return the request, or null if there is none waiting.
+     */
+    private Request takeClosest() {
+        synchronized (queue) {
+            int closest = -1;
+            int closestDistance = Integer.MAX_VALUE;
+            for (int i = 0; i < queue.size(); i++) {
+                int distance = distance(queue.get(i).position);
+                if (distance < closestDistance) {
+                    closest = i;
+                    closestDistance = distance;
+                }
+            }
+            return closest == -1 ? null : queue.remove(closest);
+        }
+    }
+
+    /**
+     * Returns the distance of a row to the visible rows, in rows. The distance of the rows left
+     * behind by the scrolling counts more than the distance of the rows ahead.
+     */
+    private int distance(int position) {
+        int first = firstVisible;
+        int last = lastVisible;
+        if (position < first) {
+            return direction > 0 ? (first - position) * BEHIND_PENALTY : first - position;
+        } else if (position > last) {
+            return direction < 0 ? (position - last) * BEHIND_PENALTY : position - last;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns true if the request is for a row farther than the given number of rows from the
+     * visible ones, or for a row that has been removed.
+     */
+    private boolean isFar(Request request, int keepDistance) {
+        int position = request.position;
+        return position == RecyclerView.NO_POSITION || position < firstVisible - keepDistance
+                || position > lastVisible + keepDistance;
+    }
+
+    /**
+     * Displays a cover retained from the cache in the given view, releasing the one it displayed
+     * before, if any.
+     */
+    private void bind(ImageView imageView, Bitmap bitmap) {
+        imageView.setImageBitmap(bitmap);
+        // Every bind retains its own reference, even to the same bitmap.
+        Bitmap previous = displayed.put(imageView, bitmap);
+        if (previous != null) {
+            cache.release(previous);
+        }
+    }
+
+    /**
+     * Releases the cover retained by the given view, which must not display it anymore.
+     */
+    private void unbind(ImageView imageView) {
+        Bitmap bitmap = displayed.remove(imageView);
+        if (bitmap != null) {
+            cache.release(bitmap);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+/**
+ * Follows the scrolling of the list of books for downloading the covers in viewport order. The
+ * covers of the rows just past the visible ones are prefetched in the direction of scrolling,
+ * further ahead the faster the list scrolls, and the downloads for rows far away from the visible
+ * ones are cancelled. Nothing is prefetched while the list is flung faster than its rows could be
+ * looked at, so no bandwidth is spent on rows that are flung past.
+ */
+class CoverPrefetcher extends RecyclerView.OnScrollListener {
+    private static final float LOOKAHEAD_SECONDS = 0.5f;    // Scrolling ahead that is prefetched.
+    private static final float SMOOTHING = 0.5f;            // Weight of the last speed measure.
+
+    private final LinearLayoutManager layoutManager;
+    private final BookAdapter adapter;
+    private final int minRows;                      // Rows prefetched when scrolling slowly.
+    private final int maxRows;                      // Rows prefetched when scrolling fast.
+    private final int maxRowsPerSecond;             // Speed above which nothing is prefetched.
+    private long lastScrollMillis;                  // Time of the last scroll event.
+    private float rowsPerSecond;                    // Smoothed speed of scrolling.
+    private int direction;                          // Sign of the last scroll.
+
+    /**
+     * Constructs a new {@link CoverPrefetcher}.
+     *
+     * @param context       of the activity.
+     * @param layoutManager is the layout manager of the list.
+     * @param adapter       is the adapter of the list.
+     */
+    CoverPrefetcher(Context context, LinearLayoutManager layoutManager, BookAdapter adapter) {
+        this.layoutManager = layoutManager;
+        this.adapter = adapter;
+        minRows = context.getResources().getInteger(R.integer.cover_prefetch_min_rows);
+        maxRows = context.getResources().getInteger(R.integer.cover_prefetch_max_rows);
+        maxRowsPerSecond = context.getResources().getInteger(R.integer.cover_prefetch_max_rows_per_second);
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        long now = SystemClock.uptimeMillis();
+        View firstChild = recyclerView.getChildAt(0);
+        if (dy != 0 && firstChild != null && firstChild.getHeight() > 0) {
+            long elapsedMillis = Math.max(1, now - lastScrollMillis);
+            float rows = Math.abs(dy) / (float) firstChild.getHeight();
+            float speed = lastScrollMillis == 0 ? 0 : rows * 1000 / elapsedMillis;
+            rowsPerSecond = SMOOTHING * speed + (1 - SMOOTHING) * rowsPerSecond;
+            direction = dy > 0 ? 1 : -1;
+        }
+        lastScrollMillis = now;
+        update(recyclerView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE);
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            rowsPerSecond = 0;
+            lastScrollMillis = 0;
+            update(false);
+        }
+    }
+
+    /**
+     * Updates the visible rows of the cover loader and prefetches the covers of the rows ahead.
+     *
+     * @param scrolling is true while the list is moving.
+     */
+    private void update(boolean scrolling) {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) return;
+
+        int rowsAhead;
+        if (scrolling && rowsPerSecond > maxRowsPerSecond) {
+            rowsAhead = 0;
+        } else {
+            rowsAhead = Math.max(minRows, Math.min(maxRows, Math.round(rowsPerSecond * LOOKAHEAD_SECONDS)));
+        }
+        adapter.prefetchCovers(first, last, scrolling ? direction : 0, rowsAhead, maxRows);
+    }
+}
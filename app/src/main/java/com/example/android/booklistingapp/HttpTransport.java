@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.os.CancellationSignal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * An {@link HttpTransport} performs the HTTP requests of the app. {@link QueryUtils} goes through
+ * a single transport for every request, so the way connections are opened, pooled and timed out
+ * is decided in one place, and a different transport (for example, one that talks to a local
+ * stand-in server) can be plugged in with {@link QueryUtils#setTransport(HttpTransport)}.
+ */
+interface HttpTransport {
+    /**
+     * Performs a GET request. This is a blocking call, so it must be performed on a background
+     * thread.
+     *
+     * @param url     is the URL for the request.
+     * @param headers are the additional request headers.
+     * @param signal  is the signal for cancelling the request, or null. Cancelling the request
+     *                aborts the connection, so no more data is transferred.
+     * @return the response, which must be closed by the caller.
+     * @throws IOException if the request fails.
+     */
+    Response get(URL url, Map<String, String> headers, CancellationSignal signal) throws IOException;
+
+    /**
+     * The response to a request. Closing the response releases its connection, so it can be reused
+     * by the next request to the same host.
+     */
+    interface Response extends Closeable {
+        /**
+         * Returns the HTTP status code.
+         */
+        int getCode() throws IOException;
+
+        /**
+         * Returns the value of the given response header, or null if it is not present.
+         */
+        String getHeader(String name);
+
+        /**
+         * Returns the body of the response, already decompressed.
+         */
+        InputStream getBody() throws IOException;
+    }
+}
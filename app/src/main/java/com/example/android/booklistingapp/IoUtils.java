@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helper methods shared by the caches that keep their entries on disk.
+ */
+final class IoUtils {
+    private static final String LOG_TAG = IoUtils.class.getSimpleName();
+
+    /**
+     * Create a private constructor because no one should ever create a {@link IoUtils} object.
+     */
+    private IoUtils() {
+    }
+
+    /**
+     * Returns a file name for the given key.
+     *
+     * @param key is the key of a cache entry, usually an url.
+     * @return an hexadecimal hash of the key, safe for using as a file name.
+     */
+    static String fileNameFor(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder fileName = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                fileName.append(Character.forDigit((b >> 4) & 0xf, 16));
+                fileName.append(Character.forDigit(b & 0xf, 16));
+            }
+            return fileName.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    /**
+     * Closes the given stream, logging any exception instead of throwing it.
+     *
+     * @param closeable is the stream to close. It can be null.
+     */
+    static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem closing a stream.", e);
+        }
+    }
+}
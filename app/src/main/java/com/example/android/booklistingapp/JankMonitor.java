@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.example.android.booklistingapp.core.Histogram;
+import com.example.android.booklistingapp.core.Metrics;
+
+/**
+ * Measures the smoothness of a list in debug and internal builds, so jank regressions show up as
+ * data in the {@link Metrics} report instead of complaints.
+ * <p>
+ * While the list scrolls, and for a moment after its rows are replaced, the time between
+ * consecutive frames is recorded with a {@link Choreographer} callback; frames that took longer
+ * than a vsync period and a half are also recorded as janky. The binds of rows performed while
+ * scrolling are recorded apart, and the ones that take more than half a frame as slow. All of
+ * them end up in the percentile report of the metrics screen of debug builds, and of its log
+ * export.
+ * <p>
+ * The monitor also sets up {@link StrictMode} for logging every disk or network access performed
+ * on the main thread.
+ */
+class JankMonitor extends RecyclerView.OnScrollListener implements Choreographer.FrameCallback {
+    private static final String LOG_TAG = JankMonitor.class.getSimpleName();
+
+    private static final long UPDATE_WATCH_MILLIS = 500;   // Frames watched after an update.
+    private static boolean strictModeEnabled;
+
+    private final Choreographer choreographer;
+    private final long frameNanos;                  // Vsync period of the display.
+    private final long jankNanos;                   // Frames longer than this are janky.
+    private boolean scrolling;                      // True while the list is scrolling.
+    private long watchUntilMillis;                  // End of the watch after an update.
+    private boolean posted;                         // True if a frame callback is pending.
+    private long lastFrameNanos;                    // Time of the last frame watched, or 0.
+
+    /**
+     * Returns true if the smoothness of the app is measured in this build.
+     *
+     * @param context of the app.
+     */
+    static boolean isEnabled(Context context) {
+        return context.getResources().getBoolean(R.bool.jank_monitor);
+    }
+
+    /**
+     * Logs every disk or network access performed on the main thread from now on, if the monitor
+     * is enabled in this build. Must be called from the main thread.
+     *
+     * @param context of the app.
+     */
+    static void enableStrictMode(Context context) {
+        if (strictModeEnabled || !isEnabled(context)) return;
+        strictModeEnabled = true;
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .build());
+        StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                .detectLeakedClosableObjects()
+                .detectActivityLeaks()
+                .penaltyLog()
+                .build());
+    }
+
+    /**
+     * Constructs a new {@link JankMonitor} for the lists of the given activity. It must be added as
+     * a scroll listener of the list. Must be called from the main thread.
+     *
+     * @param activity is the activity.
+     */
+    JankMonitor(Activity activity) {
+        choreographer = Choreographer.getInstance();
+        float refreshRate = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+        frameNanos = (long) (TimeUnit.SECONDS.toNanos(1) / (refreshRate > 0 ? refreshRate : 60));
+        jankNanos = frameNanos * 3 / 2;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        scrolling = newState != RecyclerView.SCROLL_STATE_IDLE;
+        if (scrolling) watch();
+    }
+
+    /**
+     * Watches the frames for a moment, after the rows of the list have been replaced.
+     */
+    void onListUpdated() {
+        watchUntilMillis = SystemClock.uptimeMillis() + UPDATE_WATCH_MILLIS;
+        watch();
+    }
+
+    /**
+     * Records the duration of the bind of a row.
+     *
+     * @param nanos is the duration of the bind.
+     */
+    void onBind(long nanos) {
+        if (!scrolling) return;
+        Metrics metrics = Metrics.getInstance();
+        metrics.recordNanos(Metrics.STAGE_SCROLL_BIND, nanos);
+        if (nanos > frameNanos / 2) metrics.recordNanos(Metrics.STAGE_SLOW_BIND, nanos);
+    }
+
+    /**
+     * Stops watching the frames, and logs the report of the frames watched so far.
+     */
+    void stop() {
+        scrolling = false;
+        watchUntilMillis = 0;
+        if (posted) choreographer.removeFrameCallback(this);
+        posted = false;
+        lastFrameNanos = 0;
+        Log.d(LOG_TAG, report());
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        posted = false;
+        if (lastFrameNanos != 0) {
+            long nanos = frameTimeNanos - lastFrameNanos;
+            Metrics.getInstance().recordNanos(Metrics.STAGE_FRAME, nanos);
+            if (nanos > jankNanos) Metrics.getInstance().recordNanos(Metrics.STAGE_JANKY_FRAME, nanos);
+        }
+        lastFrameNanos = frameTimeNanos;
+        if (scrolling || SystemClock.uptimeMillis() < watchUntilMillis) {
+            watch();
+        } else {
+            lastFrameNanos = 0;
+        }
+    }
+
+    /**
+     * Requests a callback for the next frame, unless one is pending.
+     */
+    private void watch() {
+        if (posted) return;
+        posted = true;
+        choreographer.postFrameCallback(this);
+    }
+
+    /**
+     * Returns a summary of the frames watched so far: their number, the share of janky frames,
+     * the frame time percentiles, and the number of slow binds.
+     */
+    static String report() {
+        Metrics metrics = Metrics.getInstance();
+        Histogram.Snapshot frames = metrics.histogram(Metrics.STAGE_FRAME).snapshot();
+        long janky = metrics.histogram(Metrics.STAGE_JANKY_FRAME).snapshot().getCount();
+        long slowBinds = metrics.histogram(Metrics.STAGE_SLOW_BIND).snapshot().getCount();
+        return String.format(Locale.US, "JankMonitor{frames=%d, janky=%d (%.1f%%), p50=%.1fms, p95=%.1fms, p99=%.1fms, slowBinds=%d}",
+                frames.getCount(), janky, frames.getCount() == 0 ? 0 : janky * 100.0 / frames.getCount(),
+                frames.getP50() / 1e6, frames.getP95() / 1e6, frames.getP99() / 1e6, slowBinds);
+    }
+}
@@ -3,21 +3,33 @@ package com.example.android.booklistingapp;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.view.Gravity;
 import android.view.KeyEvent;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.widget.AdapterView;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
-import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.List;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
 public class MainActivity extends AppCompatActivity {
     // Using the ButterKnife library for view injection.
     @BindView(R.id.search_edittext)
-    EditText searchEditText;
+    AutoCompleteTextView searchEditText;
     @BindView(R.id.search_button)
     Button searchButton;
+    @BindView(R.id.pinned_searches_title)
+    TextView pinnedSearchesTitle;
+    @BindView(R.id.pinned_searches)
+    LinearLayout pinnedSearchesLayout;
     private String searchString;
 
     @Override
@@ -26,6 +38,9 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
         ButterKnife.bind(this);
 
+        // Log main-thread disk and network access, in debug and internal builds.
+        JankMonitor.enableStrictMode(this);
+
         // Set onClick behaviour for the search button.
         searchButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -49,6 +64,64 @@ public class MainActivity extends AppCompatActivity {
                 return false;
             }
         });
+
+        // Suggest past searches and known titles and authors while typing, and search as soon as
+        // one of them is picked.
+        searchEditText.setAdapter(new SuggestionAdapter(this));
+        searchEditText.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                search();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showPinnedSearches();
+        // Pick up the books loaded since the suggestions were built.
+        QueryHistory.getInstance(this).refresh();
+    }
+
+    /**
+     * Lists the pinned searches, and reads their results in the background so they are displayed
+     * as soon as one of them is opened.
+     */
+    private void showPinnedSearches() {
+        PinnedSearches pinnedSearches = PinnedSearches.getInstance(this);
+        List<String> queries = pinnedSearches.getAll();
+        pinnedSearchesTitle.setVisibility(queries.isEmpty() ? View.GONE : View.VISIBLE);
+        pinnedSearchesLayout.removeAllViews();
+        for (final String query : queries) {
+            TextView textView = (TextView) getLayoutInflater().inflate(android.R.layout.simple_list_item_1, pinnedSearchesLayout, false);
+            textView.setText(query);
+            textView.setGravity(Gravity.CENTER);
+            textView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    openSearch(query);
+                }
+            });
+            pinnedSearchesLayout.addView(textView);
+        }
+        pinnedSearches.warmUp();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_batch_lookup) {
+            // Open BatchResolveActivity for resolving a whole list of ISBNs or titles at once.
+            startActivity(new Intent(MainActivity.this, BatchResolveActivity.class));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
     /**
@@ -61,10 +134,19 @@ public class MainActivity extends AppCompatActivity {
             Toast toast = Toast.makeText(getApplicationContext(), R.string.empty_search, Toast.LENGTH_SHORT);
             toast.show();
         } else {
-            // Open BooksActivity for performing the search and displaying results.
-            Intent intent = new Intent(MainActivity.this, BooksActivity.class);
-            intent.putExtra("searchString", searchString);
-            startActivity(intent);
+            openSearch(searchString);
         }
     }
+
+    /**
+     * Open BooksActivity for performing the search and displaying results.
+     *
+     * @param query is the search string.
+     */
+    private void openSearch(String query) {
+        QueryHistory.getInstance(this).record(query);
+        Intent intent = new Intent(MainActivity.this, BooksActivity.class);
+        intent.putExtra("searchString", query);
+        startActivity(intent);
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sheds the memory retained by the caches of the app when the system asks for it, so the memory
+ * footprint follows the pressure of the device instead of just growing, and the process is less
+ * likely to be killed in the background.
+ * <p>
+ * Caches register as {@link Trimmable}s. On every {@link #onTrimMemory(int)} call, the governor
+ * turns the level into the fraction of its budget that every cache may keep: a little is shed
+ * while the app is running and memory gets low, half when the UI is hidden or the app goes to the
+ * background, and everything when the process is about to be killed. Caches of things that are
+ * cheap to rebuild, like pooled bitmaps, are dropped first by the caches themselves.
+ * <p>
+ * The governor also keeps the current and the peak number of bytes retained by the caches. The
+ * peak is sampled every time a cache grows. This class is thread-safe.
+ */
+final class MemoryGovernor implements ComponentCallbacks2 {
+    private static final String LOG_TAG = MemoryGovernor.class.getSimpleName();
+
+    private static MemoryGovernor instance;
+
+    /**
+     * A cache whose memory can be shed.
+     */
+    interface Trimmable {
+        /**
+         * Evicts entries until the cache retains at most the given fraction of its budget.
+         *
+         * @param keepFraction is the fraction of the budget to keep, from 0 to 1.
+         */
+        void trimMemory(float keepFraction);
+
+        /**
+         * Returns the number of bytes retained by the cache. Must be cheap to call.
+         */
+        long getRetainedBytes();
+    }
+
+    private final Map<String, Trimmable> trimmables = new LinkedHashMap<>();  // Caches, by name.
+    private long peakBytes;                         // Peak of the retained bytes sampled.
+    private int trims;                              // Number of trims performed.
+    private int lastLevel = -1;                     // Last level of trimming, or -1.
+
+    /**
+     * Constructs a new {@link MemoryGovernor}. Use {@link #getInstance(Context)} instead.
+     */
+    private MemoryGovernor() {
+    }
+
+    /**
+     * Returns the governor shared by all the caches of the app, registered for the memory
+     * callbacks of the app.
+     *
+     * @param context of the app.
+     * @return the shared {@link MemoryGovernor}.
+     */
+    static synchronized MemoryGovernor getInstance(Context context) {
+        if (instance == null) {
+            instance = new MemoryGovernor();
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Registers a cache whose memory is shed when the system asks for it.
+     *
+     * @param name      is the name of the cache, for the reports.
+     * @param trimmable is the cache.
+     */
+    synchronized void register(String name, Trimmable trimmable) {
+        trimmables.put(name, trimmable);
+    }
+
+    /**
+     * Samples the number of retained bytes, for keeping the peak. Called by the caches when they
+     * grow.
+     */
+    void sample() {
+        long bytes = getRetainedBytes();
+        synchronized (this) {
+            if (bytes > peakBytes) peakBytes = bytes;
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently retained by all the caches.
+     */
+    synchronized long getRetainedBytes() {
+        long bytes = 0;
+        for (Trimmable trimmable : trimmables.values()) bytes += trimmable.getRetainedBytes();
+        return bytes;
+    }
+
+    /**
+     * Returns the peak number of bytes retained by all the caches since the app was started.
+     */
+    synchronized long getPeakBytes() {
+        return Math.max(peakBytes, getRetainedBytes());
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trim(level, keepFraction(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(TRIM_MEMORY_COMPLETE, 0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration configuration) {
+    }
+
+    /**
+     * Returns the fraction of their budget that the caches may keep at the given level.
+     *
+     * @param level is the level of {@link #onTrimMemory(int)}.
+     */
+    static float keepFraction(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) return 0;            // Next to be killed.
+        if (level >= TRIM_MEMORY_MODERATE) return 0.25f;        // Middle of the background list.
+        if (level >= TRIM_MEMORY_UI_HIDDEN) return 0.5f;        // Not visible anymore.
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) return 0.25f;
+        if (level >= TRIM_MEMORY_RUNNING_LOW) return 0.5f;
+        return 0.75f;                                           // TRIM_MEMORY_RUNNING_MODERATE.
+    }
+
+    /**
+     * Trims all the caches to the given fraction of their budget.
+     */
+    private synchronized void trim(int level, float keepFraction) {
+        long before = getRetainedBytes();
+        if (before > peakBytes) peakBytes = before;
+        for (Trimmable trimmable : trimmables.values()) trimmable.trimMemory(keepFraction);
+        trims++;
+        lastLevel = level;
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Trimmed at level " + level + " from " + before + " to " + getRetainedBytes() + " bytes");
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("MemoryGovernor{");
+        for (Map.Entry<String, Trimmable> entry : trimmables.entrySet()) {
+            builder.append(entry.getKey()).append("Bytes=").append(entry.getValue().getRetainedBytes()).append(", ");
+        }
+        return builder.append("retainedBytes=").append(getRetainedBytes())
+                .append(", peakBytes=").append(getPeakBytes())
+                .append(", trims=").append(trims)
+                .append(", lastLevel=").append(lastLevel).append("}").toString();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import com.example.android.booklistingapp.core.Book;
+
+/**
+ * A {@link PagedBookList} keeps a sliding window of consecutive pages of results of a search. Pages
+ * are appended when the user scrolls down and prepended when the user scrolls back up. When the
+ * window grows beyond its maximum number of pages, the page at the opposite end is dropped, so
+ * memory stays bounded no matter how far the user scrolls. Books are de-duplicated by volume id
+ * across the whole window. The first page of a search may span several pages of results, when they
+ * are fetched at once.
+ */
+class PagedBookList {
+    private final int pageSize;                 // Number of results requested per page.
+    private final int maxPages;                 // Maximum number of pages kept in the window.
+    private final LinkedList<Page> pages;       // Loaded pages, sorted by start index.
+    private final Set<String> ids;              // Volume ids of the books in the window.
+    private boolean endReached;                 // True if the last page of results is loaded.
+
+    /**
+     * A single page of results, as returned by the Google Books API.
+     */
+    private static class Page {
+        private final int startIndex;           // Index of the first result of the page.
+        private final int size;                 // Number of results requested for the page.
+        private final List<Book> books;         // De-duplicated books of the page.
+
+        Page(int startIndex, int size, List<Book> books) {
+            this.startIndex = startIndex;
+            this.size = size;
+            this.books = books;
+        }
+    }
+
+    /**
+     * Constructs a new empty {@link PagedBookList}.
+     *
+     * @param pageSize is the number of results requested per page.
+     * @param maxPages is the maximum number of pages kept in the window.
+     */
+    PagedBookList(int pageSize, int maxPages) {
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        pages = new LinkedList<>();
+        ids = new HashSet<>();
+    }
+
+    /**
+     * Removes all the pages, for starting a new search.
+     */
+    void clear() {
+        pages.clear();
+        ids.clear();
+        endReached = false;
+    }
+
+    /**
+     * Returns the books of all the pages of the window, in order.
+     *
+     * @return a new list with the books of the window.
+     */
+    List<Book> getBooks() {
+        List<Book> books = new ArrayList<>();
+        for (Page page : pages) books.addAll(page.books);
+        return books;
+    }
+
+    /**
+     * Returns the start index of the page after the last page of the window.
+     *
+     * @return the start index, or -1 if there are no more results.
+     */
+    int getNextStartIndex() {
+        if (endReached) return -1;
+        return pages.isEmpty() ? 0 : pages.getLast().startIndex + pages.getLast().size;
+    }
+
+    /**
+     * Returns the start index of the page before the first page of the window, which is only
+     * available once that page has been dropped from the window.
+     *
+     * @return the start index, or -1 if the first page of results is in the window.
+     */
+    int getPreviousStartIndex() {
+        if (pages.isEmpty() || pages.getFirst().startIndex == 0) return -1;
+        return pages.getFirst().startIndex - pageSize;
+    }
+
+    /**
+     * Adds a page of results at the end of the window, dropping the first page if the window
+     * grows too big.
+     *
+     * @param startIndex is the index of the first result of the page.
+     * @param books      is the list of books of the page, empty if there are no more results, or
+     *                   null if the request failed and the page must be requested again.
+     * @return the number of books dropped from the beginning of the window.
+     */
+    int append(int startIndex, List<Book> books) {
+        return append(startIndex, pageSize, books);
+    }
+
+    /**
+     * Adds a page of results spanning the given number of results at the end of the window,
+     * dropping the first page if the window grows too big.
+     *
+     * @param startIndex is the index of the first result of the page.
+     * @param size       is the number of results requested for the page.
+     * @param books      is the list of books of the page, empty if there are no more results, or
+     *                   null if the request failed and the page must be requested again.
+     * @return the number of books dropped from the beginning of the window.
+     */
+    int append(int startIndex, int size, List<Book> books) {
+        // Once the results have ended the next start index is -1, which is not a page either.
+        if (startIndex < 0 || startIndex != getNextStartIndex()) return 0;
+        // A failed request doesn't end the results, so the page is requested again on the next
+        // scroll.
+        if (books == null) return 0;
+        if (books.isEmpty()) {
+            endReached = true;
+            return 0;
+        }
+        pages.addLast(new Page(startIndex, size, deduplicate(books)));
+
+        int dropped = 0;
+        if (pages.size() > maxPages) dropped = drop(pages.removeFirst());
+        return dropped;
+    }
+
+    /**
+     * Adds a page of results at the beginning of the window, dropping the last page if the window
+     * grows too big.
+     *
+     * @param startIndex is the index of the first result of the page.
+     * @param books      is the list of books of the page, or null if the request failed.
+     * @return the number of books added at the beginning of the window.
+     */
+    int prepend(int startIndex, List<Book> books) {
+        if (startIndex < 0 || startIndex != getPreviousStartIndex() || books == null) return 0;
+        if (pages.size() >= maxPages) {
+            drop(pages.removeLast());
+            endReached = false;
+        }
+        Page page = new Page(startIndex, pageSize, deduplicate(books));
+        pages.addFirst(page);
+        return page.books.size();
+    }
+
+    /**
+     * Returns the books of the given list whose volume ids are not in the window yet, and
+     * registers their ids.
+     *
+     * @param books is the list of books.
+     * @return a new list without the duplicated books.
+     */
+    private List<Book> deduplicate(List<Book> books) {
+        List<Book> unique = new ArrayList<>(books.size());
+        for (Book book : books) {
+            String id = book.getId();
+            if (id.isEmpty() || ids.add(id)) unique.add(book);
+        }
+        return unique;
+    }
+
+    /**
+     * Unregisters the volume ids of the books of a page that has been removed from the window.
+     *
+     * @param page is the removed page.
+     * @return the number of books of the removed page.
+     */
+    private int drop(Page page) {
+        for (Book book : page.books) ids.remove(book.getId());
+        return page.books.size();
+    }
+}
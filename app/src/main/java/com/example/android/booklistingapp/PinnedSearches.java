@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import com.example.android.booklistingapp.core.VolumesQuery;
+
+/**
+ * Keeps the searches pinned by the user, whose first page of results is refreshed in the
+ * background by the {@link RefreshJobService}, so they open instantly from warm data.
+ * <p>
+ * The refresh job is scheduled while there is at least one pinned search, and cancelled when the
+ * last one is unpinned.
+ */
+final class PinnedSearches {
+    private static final String PREFERENCES = "pinned_searches";    // Name of the preferences file.
+    private static final String KEY_QUERIES = "queries";            // Key of the pinned queries.
+
+    private static PinnedSearches instance;
+
+    private final Context context;                  // Context of the app.
+    private final SharedPreferences preferences;    // Storage of the pinned searches.
+    private final Executor warmUpExecutor;          // Thread for reading the warm results.
+
+    /**
+     * Constructs a new {@link PinnedSearches}. Use {@link #getInstance(Context)} instead.
+     *
+     * @param context of the app.
+     */
+    private PinnedSearches(Context context) {
+        this.context = context;
+        preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        warmUpExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Returns the pinned searches shared by all the components of the app.
+     *
+     * @param context of the app.
+     * @return the shared {@link PinnedSearches}.
+     */
+    static synchronized PinnedSearches getInstance(Context context) {
+        if (instance == null) {
+            instance = new PinnedSearches(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the url of the first page of results of a search, as loaded by {@link BookLoader}
+     * and refreshed by the {@link RefreshJobService}.
+     *
+     * @param context of the app.
+     * @param query   is the search string.
+     * @return the url of the first page of results.
+     */
+    static String firstPageUrl(Context context, String query) {
+        return VolumesQuery.buildUrl(query, 0, firstPageResults(context));
+    }
+
+    /**
+     * Returns the number of results of the first page of a search, unless the user asks for more
+     * results at once.
+     *
+     * @param context of the app.
+     */
+    static int firstPageResults(Context context) {
+        return context.getResources().getInteger(R.integer.page_size);
+    }
+
+    /**
+     * Returns the pinned searches, in alphabetical order.
+     */
+    List<String> getAll() {
+        List<String> queries = new ArrayList<>(preferences.getStringSet(KEY_QUERIES, Collections.<String>emptySet()));
+        Collections.sort(queries, String.CASE_INSENSITIVE_ORDER);
+        return queries;
+    }
+
+    /**
+     * Returns true if the given search is pinned.
+     *
+     * @param query is the search string.
+     */
+    boolean isPinned(String query) {
+        return preferences.getStringSet(KEY_QUERIES, Collections.<String>emptySet()).contains(query.trim());
+    }
+
+    /**
+     * Pins a search, and schedules the refresh of the pinned searches.
+     *
+     * @param query is the search string.
+     */
+    void pin(String query) {
+        Set<String> queries = new HashSet<>(preferences.getStringSet(KEY_QUERIES, Collections.<String>emptySet()));
+        if (!queries.add(query.trim())) return;
+        preferences.edit().putStringSet(KEY_QUERIES, queries).apply();
+        RefreshJobService.schedule(context);
+    }
+
+    /**
+     * Unpins a search, and cancels the refresh of the pinned searches if there are none left.
+     *
+     * @param query is the search string.
+     */
+    void unpin(String query) {
+        Set<String> queries = new HashSet<>(preferences.getStringSet(KEY_QUERIES, Collections.<String>emptySet()));
+        if (!queries.remove(query.trim())) return;
+        preferences.edit().putStringSet(KEY_QUERIES, queries).apply();
+        if (queries.isEmpty()) RefreshJobService.cancel(context);
+    }
+
+    /**
+     * Reads the warm results of the pinned searches into memory on a background thread, so they
+     * are displayed as soon as one of them is opened.
+     */
+    void warmUp() {
+        final List<String> queries = getAll();
+        warmUpExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ResultStore resultStore = ResultStore.getInstance(context);
+                for (String query : queries) {
+                    resultStore.get(firstPageUrl(context, query), ResultStore.WARM_TTL_MILLIS);
+                }
+            }
+        });
+    }
+}
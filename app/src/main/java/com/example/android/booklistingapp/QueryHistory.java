@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.example.android.booklistingapp.core.SuggestionTrie;
+
+/**
+ * Suggests searches while the user types, from the searches made before and the titles and
+ * authors of the books stored on the device, without touching the network.
+ * <p>
+ * The terms are read from the {@link BookDatabase} in the background, kept in memory and indexed
+ * in a {@link SuggestionTrie}, which answers every keystroke in microseconds. Past searches come
+ * before titles and authors, the most frequent first. The trie is rebuilt after every search from
+ * the terms in memory, and after books are saved, when only the titles and authors are read again.
+ */
+final class QueryHistory implements BookDatabase.OnBooksSavedListener {
+    // Added to the uses of the past searches, so they rank above any title or author.
+    private static final int HISTORY_WEIGHT = 1 << 20;
+
+    private static QueryHistory instance;
+
+    private final BookDatabase bookDatabase;                        // Storage of the terms.
+    private final Executor executor = Executors.newSingleThreadExecutor();  // Thread for rebuilding.
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();       // Coalesces refreshes.
+    private final AtomicBoolean bookTermsStale = new AtomicBoolean(true);   // Books saved since.
+    private volatile SuggestionTrie trie = SuggestionTrie.empty();          // Current suggestions.
+
+    // Terms read from the database, only touched on the thread for rebuilding.
+    private Map<String, Integer> queries = new HashMap<>();     // Uses, by past search.
+    private Map<String, Integer> bookTerms = new HashMap<>();   // Books, by title or author.
+
+    /**
+     * Constructs a new {@link QueryHistory}. Use {@link #getInstance(Context)} instead.
+     *
+     * @param context of the app.
+     */
+    private QueryHistory(Context context) {
+        bookDatabase = BookDatabase.getInstance(context);
+    }
+
+    /**
+     * Returns the query history shared by all the components of the app.
+     *
+     * @param context of the app.
+     * @return the shared {@link QueryHistory}.
+     */
+    static synchronized QueryHistory getInstance(Context context) {
+        if (instance == null) {
+            instance = new QueryHistory(context.getApplicationContext());
+            instance.bookDatabase.setOnBooksSavedListener(instance);
+            instance.refresh();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the best suggestions for the text typed so far. This method does not touch the
+     * disk, so it can be called from any thread.
+     *
+     * @param prefix is the text typed so far.
+     * @param limit  is the maximum number of suggestions.
+     * @return a new list with the suggestions, best first.
+     */
+    List<String> suggest(String prefix, int limit) {
+        return trie.suggest(prefix, limit);
+    }
+
+    /**
+     * Adds a search to the history in the background, and rebuilds the suggestions without
+     * reading the titles and authors again.
+     *
+     * @param query is the search string.
+     */
+    void record(final String query) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String key = bookDatabase.recordQuery(query);
+                if (key == null) return;
+                Integer uses = queries.get(key);
+                queries.put(key, uses == null ? 1 : uses + 1);
+                rebuild();
+            }
+        });
+    }
+
+    /**
+     * Reads the history of searches again in the background, and the titles and authors too if
+     * books were saved since they were last read, then rebuilds the suggestions. Does nothing if
+     * a refresh is already pending.
+     */
+    void refresh() {
+        if (!rebuildPending.compareAndSet(false, true)) return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                rebuildPending.set(false);
+                queries = bookDatabase.getQueryHistory();
+                if (bookTermsStale.getAndSet(false)) bookTerms = bookDatabase.getBookTerms();
+                rebuild();
+            }
+        });
+    }
+
+    @Override
+    public void onBooksSaved() {
+        bookTermsStale.set(true);
+        refresh();
+    }
+
+    /**
+     * Replaces the trie with a new one built from the terms in memory.
+     */
+    private void rebuild() {
+        SuggestionTrie.Builder builder = new SuggestionTrie.Builder();
+        for (Map.Entry<String, Integer> entry : queries.entrySet()) {
+            builder.add(entry.getKey(), HISTORY_WEIGHT + entry.getValue());
+        }
+        for (Map.Entry<String, Integer> entry : bookTerms.entrySet()) {
+            builder.add(entry.getKey(), entry.getValue());
+        }
+        trie = builder.build();
+    }
+}
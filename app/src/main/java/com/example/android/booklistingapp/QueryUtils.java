@@ -16,24 +16,32 @@
 package com.example.android.booklistingapp;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.Metrics;
+import com.example.android.booklistingapp.core.OnBookParsedListener;
+import com.example.android.booklistingapp.core.VolumesParser;
 
 /**
  * Helper methods related to requesting and receiving book data from USGS.
@@ -41,6 +49,23 @@ import java.util.List;
 final class QueryUtils {
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    // Timeouts of the default transport.
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    // Transport for all the HTTP requests.
+    private static volatile HttpTransport transport = new UrlConnectionTransport(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+
+    // Concurrent identical searches and cover fetches share a single request in flight, performed
+    // on a thread of its own, so every caller can stop waiting for it as soon as it cancels.
+    private static final Executor REQUEST_EXECUTOR = Executors.newCachedThreadPool();
+    private static final RequestCoalescer<List<Book>> SEARCHES = new RequestCoalescer<>(REQUEST_EXECUTOR);
+    private static final RequestCoalescer<Bitmap> COVERS = new RequestCoalescer<>(REQUEST_EXECUTOR);
+
+    // Background revalidation of stale cached responses.
+    private static final Executor REVALIDATION_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final Set<String> REVALIDATING_URLS = Collections.synchronizedSet(new HashSet<String>());
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -52,10 +77,102 @@ final class QueryUtils {
     /**
      * Query the Google Books API dataset and return a list of {@link Book} objects.
      *
+     * @param cache      is the cache of responses.
+     * @param requestUrl is the URL for getting the JSON object with the list of books.
+     * @param signal     is the signal for cancelling the request, or null.
+     * @return a list of {@link Book} objects, empty if there are no results, or null if the
+     * request failed.
+     * @throws OperationCanceledException if the request is cancelled.
+     */
+    static List<Book> fetchBookData(ResponseCache cache, String requestUrl, CancellationSignal signal) {
+        final List<Book> books = new ArrayList<>();
+        boolean served = fetchBookData(cache, requestUrl, new OnBookParsedListener() {
+            @Override
+            public void onBookParsed(Book book) {
+                books.add(book);
+            }
+        }, signal);
+        return served ? books : null;
+    }
+
+    /**
+     * Query the Google Books API dataset and hand out every {@link Book} object to the given
+     * listener as soon as it is parsed from the response.
+     * <p>
+     * Fresh responses are served from the given cache without touching the network. Stale
+     * responses are served from the cache too, while they are revalidated in the background, so
+     * the next query gets the updated response. Otherwise, a conditional request is performed if
+     * there is an expired response in the cache, and the new response is stored in the cache.
+     *
+     * @param cache      is the cache of responses.
      * @param requestUrl is the URL for getting the JSON object with the list of books.
-     * @return a list of {@link Book} objects.
+     * @param listener   is the listener that receives the parsed books.
+     * @param signal     is the signal for cancelling the request, or null. Cancelling the request
+     *                   closes the connection, so no more data is transferred.
+     * @return true if a response was parsed, even without books, or false if the request failed.
+     * @throws OperationCanceledException if the request is cancelled.
      */
-    static List<Book> fetchBookData(String requestUrl) {
+    static boolean fetchBookData(final ResponseCache cache, final String requestUrl, final OnBookParsedListener listener, CancellationSignal signal) {
+        // The caller that starts the request gets every book as soon as it is parsed, until it
+        // stops waiting, and the callers that join it get all of them once the response is
+        // complete.
+        final boolean[] streamed = {false};
+        final GatedListener gatedListener = new GatedListener(listener);
+        List<Book> books;
+        try {
+            books = SEARCHES.execute(normalizeUrl(requestUrl), new RequestCoalescer.Request<List<Book>>() {
+                @Override
+                List<Book> perform(CancellationSignal sharedSignal) {
+                    streamed[0] = true;
+                    final List<Book> parsed = new ArrayList<>();
+                    boolean served = fetchBookDataNow(cache, requestUrl, new OnBookParsedListener() {
+                        @Override
+                        public void onBookParsed(Book book) {
+                            parsed.add(book);
+                            gatedListener.onBookParsed(book);
+                        }
+                    }, sharedSignal, true);
+                    return served ? parsed : null;
+                }
+            }, signal);
+        } finally {
+            gatedListener.close();
+        }
+        if (books == null) return false;
+        if (!streamed[0]) {
+            for (Book book : books) listener.onBookParsed(book);
+        }
+        return true;
+    }
+
+    /**
+     * Query the Google Books API dataset like {@link #fetchBookData(ResponseCache, String,
+     * OnBookParsedListener, CancellationSignal)}, but without serving a cached response that is
+     * not fresh: it is revalidated first, so the cache is refreshed before the request returns.
+     * Meant for refreshing the cache in the background, so the request is not coalesced.
+     *
+     * @param cache      is the cache of responses.
+     * @param requestUrl is the URL for getting the JSON object with the list of books.
+     * @param listener   is the listener that receives the parsed books.
+     * @param signal     is the signal for cancelling the request, or null.
+     * @return true if a response was parsed, even without books, or false if the request failed.
+     * @throws OperationCanceledException if the request is cancelled.
+     */
+    static boolean refreshBookData(ResponseCache cache, String requestUrl, OnBookParsedListener listener, CancellationSignal signal) {
+        return fetchBookDataNow(cache, requestUrl, listener, signal, false);
+    }
+
+    /**
+     * Performs the request of {@link #fetchBookData(ResponseCache, String, OnBookParsedListener,
+     * CancellationSignal)}, without coalescing it with other requests in flight.
+     *
+     * @param allowStale is true for serving a stale cached response while it is revalidated in
+     *                   the background, or false for revalidating it right away.
+     */
+    private static boolean fetchBookDataNow(ResponseCache cache, String requestUrl, OnBookParsedListener listener, CancellationSignal signal, boolean allowStale) {
+        throwIfCanceled(signal);
+        long start = Metrics.now();
+
         // Create URL object from the given string URL "requestUrl".
         URL url = null;
         try {
@@ -64,211 +181,448 @@ final class QueryUtils {
             Log.e(LOG_TAG, "Problem building the URL.", e);
         }
 
-        // Perform HTTP request to the URL and receive a JSON response back.
-        String jsonResponse = null;
+        // Serve the response from the cache, if possible.
+        ResponseCache.Entry entry = cache.get(requestUrl);
+        if (entry != null && (entry.isFresh() || allowStale && entry.isStaleWhileRevalidate())) {
+            CountingListener countingListener = new CountingListener(listener);
+            if (extractFeatureFromCache(entry, countingListener, signal)) {
+                if (!entry.isFresh()) revalidate(cache, url, entry);
+                Metrics.getInstance().record(Metrics.STAGE_SEARCH, start);
+                return true;
+            }
+            // A cached response that can't be read would fail every search until it expires, so
+            // it is deleted, and requested again unless some of its books were handed out.
+            throwIfCanceled(signal);
+            cache.remove(requestUrl);
+            if (countingListener.count > 0) {
+                Metrics.getInstance().record(Metrics.STAGE_SEARCH, start);
+                return false;
+            }
+            entry = null;
+        }
+
+        // Perform HTTP request to the URL and parse the JSON response as it is received.
+        boolean served = false;
         try {
-            jsonResponse = makeHttpRequest(url);
+            served = makeHttpRequest(cache, url, entry, listener, signal);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Problem making the HTTP request.", e);
         }
-
-        // Extract relevant fields from the JSON response, create a list of {@link Book}s and
-        // return this list.
-        return extractFeatureFromJson(jsonResponse);
+        Metrics.getInstance().record(Metrics.STAGE_SEARCH, start);
+        return served;
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL and parse the response straight from the input stream,
+     * without building the whole response in memory, while it is copied to the cache.
      *
-     * @param url is the URL for the HTTP request.
-     * @return a String as the response.
+     * @param cache    is the cache of responses.
+     * @param url      is the URL for the HTTP request.
+     * @param entry    is the expired cached response for the URL, or null if there is none. It is
+     *                 used for performing a conditional request, and served if the request fails.
+     * @param listener is the listener that receives the parsed books.
+     * @param signal   is the signal for cancelling the request, or null.
+     * @return true if a complete response was parsed, from the network or from the cache, or
+     * false if the request failed, possibly after handing out some books.
      * @throws IOException
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        // If the URL is null, then return an empty JSON string.
-        String jsonResponse = "";
+    private static boolean makeHttpRequest(ResponseCache cache, URL url, ResponseCache.Entry entry, final OnBookParsedListener listener, CancellationSignal signal) throws IOException {
+        // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return false;
         }
 
-        HttpURLConnection urlConnection = null;
+        // Count the books handed out, as the cached response can only stand in for a response
+        // that failed before handing out any.
+        CountingListener countingListener = new CountingListener(listener);
+
+        HttpTransport.Response response = null;
         InputStream inputStream = null;
+        boolean served = false;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000);
-            urlConnection.setConnectTimeout(15000);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            response = transport.get(url, conditionalHeaders(entry), signal);
 
             // If the request was successful (response code 200), then read the input stream and
-            // parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-
-                // Convert the {@link InputStream} into a String which contains the whole JSON
-                // response from the server.
-                StringBuilder output = new StringBuilder();
-                if (inputStream != null) {
-                    InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-                    BufferedReader reader = new BufferedReader(inputStreamReader);
-                    String line = reader.readLine();
-                    while (line != null) {
-                        output.append(line);
-                        line = reader.readLine();
-                    }
+            // parse the response. If the cached response is still valid (response code 304), then
+            // parse the cached response.
+            int responseCode = response.getCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                ResponseCache.CachingInputStream cachingInputStream = cache.store(url.toString(),
+                        response.getHeader("ETag"), response.getHeader("Last-Modified"), response.getBody());
+                inputStream = cachingInputStream;
+                try {
+                    // A response that could not be read or parsed to the end is not served, nor
+                    // cached.
+                    served = extractFeatureFromStream(inputStream, Metrics.STAGE_DOWNLOAD, countingListener, signal);
+                    if (!served) cachingInputStream.abort();
+                } catch (OperationCanceledException e) {
+                    // Don't cache a response that has not been completely read.
+                    cachingInputStream.abort();
+                    throw e;
                 }
-                jsonResponse = output.toString();
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                cache.touch(url.toString(), entry);
+                served = extractFeatureFromCache(entry, countingListener, signal);
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
             }
         } catch (IOException e) {
             Log.e(LOG_TAG, "Problem retrieving the book JSON results.", e);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why the
-                // makeHttpRequest(URL url) method signature specifies than an IOException could be
-                // thrown.
-                inputStream.close();
+            try {
+                if (inputStream != null) {
+                    // Closing the input stream commits the response to the cache, so it must be
+                    // done before closing the response. It could throw an IOException, which is why
+                    // the makeHttpRequest(URL url) method signature specifies than an IOException
+                    // could be thrown.
+                    inputStream.close();
+                }
+            } finally {
+                if (response != null) {
+                    response.close();
+                }
             }
         }
-        return jsonResponse;
+
+        // If the request failed because it was cancelled, don't do anything else. Otherwise,
+        // better an expired response than no response at all, unless some books of the failed
+        // response have been handed out already.
+        throwIfCanceled(signal);
+        if (!served && entry != null && countingListener.count == 0) {
+            served = extractFeatureFromCache(entry, listener, signal);
+        }
+        return served;
+    }
+
+    /**
+     * Return the headers for a request that can be answered with "304 Not Modified" if the given
+     * cached response is still valid.
+     *
+     * @param entry is the cached response for the URL, or null if there is none.
+     * @return the conditional request headers, or no headers if there is no cached response.
+     */
+    private static Map<String, String> conditionalHeaders(ResponseCache.Entry entry) {
+        if (entry == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> headers = new HashMap<>();
+        if (!entry.getETag().isEmpty()) {
+            headers.put("If-None-Match", entry.getETag());
+        }
+        if (!entry.getLastModified().isEmpty()) {
+            headers.put("If-Modified-Since", entry.getLastModified());
+        }
+        return headers;
     }
 
     /**
-     * Return a list of {@link Book} objects that has been built up from parsing the given JSON
-     * response.
+     * Revalidate a stale cached response in the background with a conditional request, updating
+     * the cache with the result. Only one revalidation per URL runs at the same time.
      *
-     * @param bookJSON is the JSON object to be parsed and converted to a list of {@link Book}
-     *                 objects.
-     * @return the list of {@link Book} objects parsed form the input JSON object.
+     * @param cache is the cache of responses.
+     * @param url   is the URL of the cached response.
+     * @param entry is the stale cached response.
      */
-    private static List<Book> extractFeatureFromJson(String bookJSON) {
-        // If the JSON string is empty or null, then return null.
-        if (TextUtils.isEmpty(bookJSON)) {
+    private static void revalidate(final ResponseCache cache, final URL url, final ResponseCache.Entry entry) {
+        if (url == null || !REVALIDATING_URLS.add(url.toString())) {
+            return;
+        }
+        REVALIDATION_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                HttpTransport.Response response = null;
+                InputStream inputStream = null;
+                try {
+                    response = transport.get(url, conditionalHeaders(entry), null);
+                    int responseCode = response.getCode();
+                    if (responseCode == HttpURLConnection.HTTP_OK) {
+                        // Closing the stream reads the whole body into the cache.
+                        inputStream = cache.store(url.toString(), response.getHeader("ETag"),
+                                response.getHeader("Last-Modified"), response.getBody());
+                    } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                        cache.touch(url.toString(), entry);
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem revalidating " + url, e);
+                } finally {
+                    IoUtils.closeQuietly(inputStream);
+                    IoUtils.closeQuietly(response);
+                    REVALIDATING_URLS.remove(url.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the decoded image of the cover of a book, from the given cache if it is there or from
+     * the network otherwise. Downloaded images are stored in the cache. This is a blocking call, so
+     * it must be performed on a background thread. The returned bitmap must be released with
+     * {@link CoverCache#release(Bitmap)} when it is not displayed anymore.
+     *
+     * @param cache    is the cache of covers.
+     * @param imageUrl is the URL of the image.
+     * @param signal   is the signal for cancelling the download, or null.
+     * @return the decoded {@link Bitmap}, or null if the image could not be retrieved.
+     * @throws OperationCanceledException if the download is cancelled.
+     */
+    static Bitmap fetchCover(final CoverCache cache, final String imageUrl, CancellationSignal signal) {
+        if (TextUtils.isEmpty(imageUrl)) {
             return null;
         }
+        throwIfCanceled(signal);
 
-        // Create an empty ArrayList that we can start adding books to.
-        List<Book> books = new ArrayList<>();
+        Bitmap bitmap = cache.acquireFromMemory(imageUrl);
+        if (bitmap != null) {
+            return bitmap;
+        }
 
-        // Try to parse the JSON response string. If there's a problem with the way the JSON is
-        // formatted, a JSONException exception object will be thrown. Catch the exception so the
-        // app doesn't crash, and print the error message to the logs.
+        // A cover shared by several books or pages is read or downloaded, and decoded, only once.
+        // Every caller retains the bitmap on its own.
+        return COVERS.execute(normalizeUrl(imageUrl), new RequestCoalescer.Request<Bitmap>() {
+            @Override
+            Bitmap perform(CancellationSignal sharedSignal) {
+                return fetchCoverNow(cache, imageUrl, sharedSignal);
+            }
+
+            @Override
+            Bitmap share(Bitmap value) {
+                return cache.reacquire(value);
+            }
+
+            @Override
+            void discard(Bitmap value) {
+                cache.release(value);
+            }
+        }, signal);
+    }
+
+    /**
+     * Performs the request of {@link #fetchCover(CoverCache, String, CancellationSignal)}, without
+     * coalescing it with other requests in flight.
+     */
+    private static Bitmap fetchCoverNow(CoverCache cache, String imageUrl, CancellationSignal signal) {
+        Bitmap bitmap = cache.acquire(imageUrl);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        byte[] encoded = downloadCover(imageUrl, signal);
+        if (encoded != null) bitmap = cache.put(imageUrl, encoded);
+        if (bitmap == null) throwIfCanceled(signal);
+        return bitmap;
+    }
+
+    /**
+     * Downloads the image of a cover into the disk tier of the given cache, without decoding it,
+     * unless it is cached already. Meant for warming the cache in the background.
+     *
+     * @param cache    is the cache of covers.
+     * @param imageUrl is the URL of the image.
+     * @param signal   is the signal for cancelling the download, or null.
+     * @return true if the image is cached, or false if it could not be retrieved.
+     * @throws OperationCanceledException if the download is cancelled.
+     */
+    static boolean prefetchCover(CoverCache cache, String imageUrl, CancellationSignal signal) {
+        if (TextUtils.isEmpty(imageUrl)) {
+            return false;
+        }
+        throwIfCanceled(signal);
+        if (cache.isInMemory(imageUrl) || cache.isOnDisk(imageUrl)) {
+            return true;
+        }
+
+        byte[] encoded = downloadCover(imageUrl, signal);
+        if (encoded == null) {
+            throwIfCanceled(signal);
+            return false;
+        }
+        cache.putOnDisk(imageUrl, encoded);
+        return true;
+    }
+
+    /**
+     * Downloads the image of a cover.
+     *
+     * @param imageUrl is the URL of the image.
+     * @param signal   is the signal for cancelling the download, or null.
+     * @return the encoded image, or null if it could not be downloaded.
+     */
+    private static byte[] downloadCover(String imageUrl, CancellationSignal signal) {
+        long start = Metrics.now();
+        HttpTransport.Response response = null;
         try {
-            // Create a JSONObject from the JSON response string.
-            JSONObject baseJsonResponse = new JSONObject(bookJSON);
-
-            // Extract the JSONArray associated with the key called "items", which represents a list
-            // of items (or books). If there's no "items" array, exit returning null before trying
-            // to extract the JSONArray.
-            if (baseJsonResponse.isNull("items")) return null;
-            JSONArray bookArray = baseJsonResponse.getJSONArray("items");
-
-            // For each book in the bookArray, create an {@link Book} object.
-            JSONObject currentBook;
-            for (int i = 0; i < bookArray.length(); i++) {
-                // Get a single book at position i within the list of books.
-                currentBook = bookArray.getJSONObject(i);
-
-                // For a given book, extract the JSONObject associated with the key called
-                // "volumeInfo", which represents a list of all properties for that book.
-                if (currentBook.isNull("volumeInfo")) break;
-                JSONObject volumeInfo = currentBook.getJSONObject("volumeInfo");
-
-                // Extract the value for the key called "title", which represents the title of the
-                // book.
-                String title = "";
-                if (!volumeInfo.isNull("title")) title = volumeInfo.getString("title");
-
-                // Extract the JSONArray associated with the key called "authors", which represents
-                // the list of authors of the book.
-                String authors = "";
-                if (!volumeInfo.isNull("authors")) {
-                    JSONArray authorsArray = volumeInfo.getJSONArray("authors");
-                    for (int j = 0; j < authorsArray.length(); j++) {
-                        // Get a single author at position j within the list of authors.
-                        if (j == 0) authors = authorsArray.get(j).toString();
-                        else authors = authors + ", " + authorsArray.get(j).toString();
-                    }
+            response = transport.get(new URL(imageUrl), Collections.<String, String>emptyMap(), signal);
+            if (response.getCode() == HttpURLConnection.HTTP_OK) {
+                // Keep the encoded bytes, which are much smaller than the decoded bitmap, for the
+                // disk cache. Reading the whole body lets the connection be reused.
+                InputStream inputStream = response.getBody();
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
                 }
+                Metrics.getInstance().record(Metrics.STAGE_COVER_FETCH, start);
+                return output.toByteArray();
+            } else {
+                Log.e(LOG_TAG, "Error response code " + response.getCode() + " for " + imageUrl);
+            }
+        } catch (MalformedURLException e) {
+            Log.e(LOG_TAG, "Malformed URL exception: " + imageUrl, e);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem getting the bitmap from " + imageUrl, e);
+        } finally {
+            IoUtils.closeQuietly(response);
+        }
+        return null;
+    }
 
-                // Extract the value for the key called "publisher", which represents the publisher
-                // of the book.
-                String publisher = "";
-                if (!volumeInfo.isNull("publisher")) publisher = volumeInfo.getString("publisher");
-
-                // Extract the value for the key called "publishedDate", which represents the
-                // publication date of the book.
-                String publishedDate = "";
-                if (!volumeInfo.isNull("publishedDate"))
-                    publishedDate = volumeInfo.getString("publishedDate");
-
-                // Extract the value for the key called "pageCount", which represents the number of
-                // pages of the book.
-                int pageCount = 0;
-                if (!volumeInfo.isNull("pageCount")) pageCount = volumeInfo.getInt("pageCount");
-
-                // Extract the value for the key called "averageRating", which represents the rating
-                // of the book based on readers' reviews.
-                int averageRating = 0;
-                if (!volumeInfo.isNull("averageRating"))
-                    averageRating = volumeInfo.getInt("averageRating");
-
-                // Extract the value for the key called "description", which represents the short
-                // description of the book.
-                String description = "";
-                if (!volumeInfo.isNull("description"))
-                    description = volumeInfo.getString("description");
-
-                // For a given book, extract the JSONObject associated with the key called
-                // "imageLinks", which represents a list of the images associated with that book.
-                // Then extract the value for the key called "smallThumbnail", which represents the
-                // link to the small image of the cover of the book.
-                String smallThumbnail = "";
-                Bitmap bmp = null;
-                if (!volumeInfo.isNull("imageLinks")) {
-                    JSONObject imageLinks = volumeInfo.getJSONObject("imageLinks");
-                    if (!imageLinks.isNull("smallThumbnail")) {
-                        smallThumbnail = imageLinks.getString("smallThumbnail");
-                        try {
-                            URL url = new URL(smallThumbnail);
-                            try {
-                                bmp = BitmapFactory.decodeStream(url.openConnection().getInputStream());
-                            } catch (java.io.IOException a) {
-                                Log.e("QueryUtils", "Problem getting the bitmap from " + smallThumbnail, a);
-                            }
-                        } catch (MalformedURLException e) {
-                            Log.e("QueryUtils", "Malformed URL eException: " + smallThumbnail, e);
-                        }
-                    }
-                }
+    /**
+     * Replace the transport used for all the HTTP requests, for example for running the app or a
+     * benchmark against a local stand-in server.
+     *
+     * @param httpTransport is the new transport.
+     */
+    static void setTransport(HttpTransport httpTransport) {
+        transport = httpTransport;
+    }
 
-                // Extract the value for the key called "canonicalVolumeLink", which represents the
-                // url of the book at books.google.com.
-                String canonicalVolumeLink = "";
-                if (!volumeInfo.isNull("canonicalVolumeLink"))
-                    canonicalVolumeLink = volumeInfo.getString("canonicalVolumeLink");
+    /**
+     * Return the key for coalescing requests for the given URL: the same URL with the scheme and
+     * the host in lower case, and without the default port or the fragment.
+     *
+     * @param requestUrl is the URL of the request.
+     * @return the normalized URL, or the same URL if it is malformed.
+     */
+    static String normalizeUrl(String requestUrl) {
+        try {
+            URL url = new URL(requestUrl);
+            StringBuilder key = new StringBuilder(requestUrl.length());
+            key.append(url.getProtocol().toLowerCase(Locale.ROOT)).append("://")
+                    .append(url.getHost().toLowerCase(Locale.ROOT));
+            if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+                key.append(':').append(url.getPort());
+            }
+            return key.append(url.getFile()).toString();
+        } catch (MalformedURLException e) {
+            return requestUrl;
+        }
+    }
 
-                // Create a new {@link Book} object with the data retrieved from the JSON response.
-                Book book = new Book(title, authors, publisher, publishedDate, pageCount, averageRating, description, bmp, canonicalVolumeLink);
+    /**
+     * Throw an {@link OperationCanceledException} if the given signal has been cancelled.
+     *
+     * @param signal is the signal for cancelling an operation, or null.
+     */
+    private static void throwIfCanceled(CancellationSignal signal) {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+    }
 
-                // Add the new {@link Book} to the list of books.
-                books.add(book);
+    /**
+     * Parse the given JSON response with {@link VolumesParser}, handing out every {@link Book}
+     * object to the given listener as soon as it is complete. The time spent waiting for the
+     * stream and the time spent parsing are recorded as separate stages.
+     *
+     * @param inputStream is the stream with the JSON response.
+     * @param readStage   is the stage for the time spent reading the stream.
+     * @param listener    is the listener that receives the parsed books.
+     * @param signal      is the signal for cancelling the parsing, or null.
+     * @return true if the response was parsed successfully, false otherwise.
+     * @throws OperationCanceledException if the parsing is cancelled.
+     */
+    private static boolean extractFeatureFromStream(InputStream inputStream, String readStage, final OnBookParsedListener listener, final CancellationSignal signal) {
+        // Try to parse the JSON response. If there's a problem with the way the JSON is formatted,
+        // an exception will be thrown. Catch the exception so the app doesn't crash, and print the
+        // error message to the logs.
+        try {
+            throwIfCanceled(signal);
+            TimingInputStream timingInputStream = new TimingInputStream(inputStream);
+            long start = Metrics.now();
+            VolumesParser.parse(timingInputStream, new OnBookParsedListener() {
+                @Override
+                public void onBookParsed(Book book) {
+                    listener.onBookParsed(book);
+                    // Stop parsing as soon as the request is cancelled.
+                    throwIfCanceled(signal);
+                }
+            });
+            long readNanos = timingInputStream.getReadNanos();
+            Metrics.getInstance().recordNanos(readStage, readNanos);
+            Metrics.getInstance().recordNanos(Metrics.STAGE_PARSE, Metrics.now() - start - readNanos);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem parsing the book JSON results", e);
+            return false;
+        }
+    }
+
+    /**
+     * Parse the body of a cached response, handing out every {@link Book} object to the given
+     * listener as soon as it is complete.
+     *
+     * @param entry    is the cached response.
+     * @param listener is the listener that receives the parsed books.
+     * @param signal   is the signal for cancelling the parsing, or null.
+     * @return true if the body was read and parsed, or false if it could not be.
+     */
+    private static boolean extractFeatureFromCache(ResponseCache.Entry entry, OnBookParsedListener listener, CancellationSignal signal) {
+        InputStream inputStream = null;
+        try {
+            inputStream = entry.openBody();
+            return extractFeatureFromStream(inputStream, Metrics.STAGE_CACHE_READ, listener, signal);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cached book JSON results.", e);
+            return false;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the cached book JSON results.", e);
+                }
             }
-        } catch (
-                JSONException e)
-
-        {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message with the
-            // message from the exception.
-            Log.e("QueryUtils", "Problem parsing the book JSON results", e);
+        }
+    }
+
+    /**
+     * Listener that counts the books it hands out to another listener.
+     */
+    private static class CountingListener implements OnBookParsedListener {
+        private final OnBookParsedListener listener;    // Listener that receives the books.
+        private int count;                              // Number of books handed out.
+
+        CountingListener(OnBookParsedListener listener) {
+            this.listener = listener;
         }
 
-        // Return the list of books.
-        return books;
+        @Override
+        public void onBookParsed(Book book) {
+            count++;
+            listener.onBookParsed(book);
+        }
+    }
+
+    /**
+     * Listener that hands out books to another listener until it is closed, for a caller that is
+     * done with a request performed on another thread.
+     */
+    private static class GatedListener implements OnBookParsedListener {
+        private final OnBookParsedListener listener;    // Listener that receives the books.
+        private boolean closed;                         // True once no books are handed out.
+
+        GatedListener(OnBookParsedListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public synchronized void onBookParsed(Book book) {
+            if (!closed) listener.onBookParsed(book);
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
     }
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.OnBookParsedListener;
+import com.example.android.booklistingapp.core.VolumesQuery;
+
+/**
+ * Refreshes the first page of results of the pinned searches, and their covers, into the local
+ * storage of the app, so {@link BookLoader} can display them instantly without the network.
+ * <p>
+ * The job runs off-peak: only on an unmetered network, while the device is charging and idle.
+ * All the pinned searches are refreshed in a single run, one request at a time, and the job is
+ * periodic with a flex window, so the system can batch it with the jobs of other apps and the
+ * refreshes of many devices are spread over time.
+ */
+public class RefreshJobService extends JobService {
+    private static final String LOG_TAG = RefreshJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 1;                // Id of the refresh job.
+
+    private ExecutorService executor;                   // Thread for refreshing the searches.
+    private CancellationSignal cancellationSignal;      // Signal of the current run, or null.
+
+    /**
+     * Schedules the periodic refresh of the pinned searches, replacing the previous schedule.
+     *
+     * @param context of the app.
+     */
+    static void schedule(Context context) {
+        long intervalMillis = TimeUnit.HOURS.toMillis(context.getResources().getInteger(R.integer.pinned_refresh_hours));
+        JobInfo.Builder builder = new JobInfo.Builder(JOB_ID, new ComponentName(context, RefreshJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPersisted(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            builder.setPeriodic(intervalMillis, intervalMillis / 2);
+        } else {
+            builder.setPeriodic(intervalMillis);
+        }
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler.schedule(builder.build()) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(LOG_TAG, "Problem scheduling the refresh of the pinned searches.");
+        }
+    }
+
+    /**
+     * Cancels the refresh of the pinned searches.
+     *
+     * @param context of the app.
+     */
+    static void cancel(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.cancel(JOB_ID);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        executor.shutdownNow();
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final List<String> queries = PinnedSearches.getInstance(this).getAll();
+        if (queries.isEmpty()) return false;
+
+        final CancellationSignal signal = new CancellationSignal();
+        synchronized (this) {
+            cancellationSignal = signal;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean complete = false;
+                try {
+                    for (String query : queries) refresh(query, signal);
+                    complete = true;
+                } catch (OperationCanceledException e) {
+                    // The job has been stopped, and it will be rescheduled.
+                } finally {
+                    synchronized (RefreshJobService.this) {
+                        if (cancellationSignal == signal) cancellationSignal = null;
+                    }
+                }
+                if (complete) jobFinished(params, false);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The conditions are not met anymore, so stop and try again later.
+        synchronized (this) {
+            if (cancellationSignal != null) cancellationSignal.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Refreshes the first page of results of a search, and the covers of its first rows. The page
+     * is fetched in the same shards as {@link ShardedFetcher}, so the cached responses are the
+     * ones a new search uses, but one shard at a time, revalidating the stale ones.
+     *
+     * @param query  is the search string.
+     * @param signal is the signal for stopping the refresh.
+     * @throws OperationCanceledException if the refresh is stopped.
+     */
+    private void refresh(String query, CancellationSignal signal) {
+        ResponseCache responseCache = ResponseCache.getInstance(this);
+        int count = PinnedSearches.firstPageResults(this);
+        int shardSize = Math.min(count, VolumesQuery.MAX_RESULTS);
+
+        final List<Book> books = new ArrayList<>();
+        final Set<String> ids = new HashSet<>();
+        for (int startIndex = 0; startIndex < count; startIndex += shardSize) {
+            final int[] received = {0};
+            String url = VolumesQuery.buildUrl(query, startIndex, Math.min(shardSize, count - startIndex));
+            boolean served = QueryUtils.refreshBookData(responseCache, url, new OnBookParsedListener() {
+                @Override
+                public void onBookParsed(Book book) {
+                    received[0]++;
+                    String id = book.getId();
+                    if (id.isEmpty() || ids.add(id)) books.add(book);
+                }
+            }, signal);
+            if (!served) {
+                // Keep the previous results rather than a truncated list.
+                Log.e(LOG_TAG, "Problem refreshing the pinned search " + query);
+                return;
+            }
+            if (received[0] == 0) break;
+        }
+        if (books.isEmpty()) return;
+
+        ResultStore.getInstance(this).put(PinnedSearches.firstPageUrl(this, query), books);
+        BookDatabase.getInstance(this).saveAsync(books);
+
+        CoverCache coverCache = CoverCache.getInstance(this);
+        int covers = Math.min(books.size(), getResources().getInteger(R.integer.pinned_refresh_covers));
+        for (int i = 0; i < covers; i++) {
+            QueryUtils.prefetchCover(coverCache, books.get(i).getImageUrl(), signal);
+        }
+    }
+}
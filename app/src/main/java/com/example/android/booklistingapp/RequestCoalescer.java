@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Coalesces concurrent requests for the same key into a single request in flight, whose result is
+ * shared by all the callers. The first caller starts the request on a thread of the executor, and
+ * the callers that arrive while it is in flight join it instead of performing it again. All the
+ * callers, including the first one, wait for the result on their own threads.
+ * <p>
+ * Every caller can cancel its wait on its own, and returns right away when it does. The request in
+ * flight is only cancelled when all its callers have cancelled, and a new caller for the same key
+ * starts a new request from then on.
+ * <p>
+ * Results that hold resources, such as bitmaps retained from a cache, are handed out to every
+ * caller through {@link Request#share(Object)}, and released with {@link Request#discard(Object)}
+ * once all the callers have taken theirs.
+ *
+ * @param <V> is the type of the results.
+ */
+class RequestCoalescer<V> {
+    private final Executor executor;                        // Threads performing the requests.
+    private final Object lock = new Object();               // Guards the requests in flight.
+    private final Map<String, InFlight<V>> inFlight = new HashMap<>();  // Requests, by key.
+
+    /**
+     * A request that can be coalesced.
+     *
+     * @param <V> is the type of the result.
+     */
+    abstract static class Request<V> {
+        /**
+         * Performs the request. Called once, on a thread of the executor of the coalescer.
+         *
+         * @param signal is the signal for cancelling the request, which is cancelled when all the
+         *               callers have cancelled.
+         * @return the result, or null.
+         * @throws OperationCanceledException if the request is cancelled.
+         */
+        abstract V perform(CancellationSignal signal);
+
+        /**
+         * Returns the result for one of the callers. Called with the lock of the coalescer held.
+         *
+         * @param value is the result of the request, which is not null.
+         * @return the result for the caller, the same one by default.
+         */
+        V share(V value) {
+            return value;
+        }
+
+        /**
+         * Releases the result of the request, after all the callers have taken theirs or
+         * cancelled. Called with the lock of the coalescer held. Does nothing by default.
+         *
+         * @param value is the result of the request, which is not null.
+         */
+        void discard(V value) {
+        }
+    }
+
+    /**
+     * A request in flight, and its result once it is done.
+     */
+    private static class InFlight<V> {
+        private final Request<V> request;           // The request performed.
+        private final CancellationSignal signal = new CancellationSignal();  // Shared cancellation.
+        private int waiting;                        // Callers that have not taken the result.
+        private boolean done;                       // True once the request is finished.
+        private V value;                            // Result of the request.
+        private RuntimeException failure;           // Exception thrown by the request, or null.
+
+        InFlight(Request<V> request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * A caller waiting for a request in flight.
+     */
+    private static class Caller {
+        private boolean gone;                       // True once it has taken the result or left.
+    }
+
+    /**
+     * Constructs a new {@link RequestCoalescer}.
+     *
+     * @param executor is the executor performing the requests. It must run every request on a
+     *                 thread of its own right away, as requests block until they are done.
+     */
+    RequestCoalescer(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the result of the request for the given key, starting it if it is not in flight
+     * already, and waiting for it.
+     *
+     * @param key     is the normalized key of the request.
+     * @param request is the request, which is only performed if there is none in flight.
+     * @param signal  is the signal for cancelling the wait of this caller, or null.
+     * @return the result of the request, shared with the other callers.
+     * @throws OperationCanceledException if this caller cancels, or if the request is cancelled.
+     */
+    V execute(final String key, Request<V> request, CancellationSignal signal) {
+        if (signal != null) signal.throwIfCanceled();
+        final InFlight<V> call;
+        final Caller caller = new Caller();
+        boolean performer;
+        synchronized (lock) {
+            InFlight<V> existing = inFlight.get(key);
+            performer = existing == null;
+            call = performer ? new InFlight<>(request) : existing;
+            if (performer) inFlight.put(key, call);
+            call.waiting++;
+        }
+        if (performer) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    perform(key, call);
+                }
+            });
+        }
+        if (signal != null) {
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    leave(key, call, caller);
+                }
+            });
+        }
+        try {
+            return take(key, call, caller, signal);
+        } finally {
+            if (signal != null) signal.setOnCancelListener(null);
+        }
+    }
+
+    /**
+     * Performs a request and publishes its result to its callers.
+     */
+    private void perform(String key, InFlight<V> call) {
+        V value = null;
+        RuntimeException failure = null;
+        try {
+            value = call.request.perform(call.signal);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        synchronized (lock) {
+            if (inFlight.get(key) == call) inFlight.remove(key);
+            call.done = true;
+            call.value = value;
+            call.failure = failure;
+            // Nobody is going to take the result if all the callers have cancelled.
+            if (call.waiting == 0 && value != null) call.request.discard(value);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for the result of a request and takes it for a caller.
+     */
+    private V take(String key, InFlight<V> call, Caller caller, CancellationSignal signal) {
+        boolean cancel = false;
+        synchronized (lock) {
+            try {
+                while (!call.done && !caller.gone) lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel = leaveLocked(key, call, caller);
+            }
+            if (!caller.gone && signal != null && signal.isCanceled()) {
+                cancel = leaveLocked(key, call, caller);
+            }
+            if (!caller.gone) {
+                caller.gone = true;
+                call.waiting--;
+                V value = call.value == null ? null : call.request.share(call.value);
+                if (call.waiting == 0 && call.value != null) call.request.discard(call.value);
+                if (call.failure != null) throw call.failure;
+                return value;
+            }
+        }
+        if (cancel) call.signal.cancel();
+        throw new OperationCanceledException();
+    }
+
+    /**
+     * Removes a caller that has cancelled, cancelling the request if it was the last one.
+     */
+    private void leave(String key, InFlight<V> call, Caller caller) {
+        boolean cancel;
+        synchronized (lock) {
+            cancel = leaveLocked(key, call, caller);
+        }
+        // This may close a connection, so it is done without holding the lock.
+        if (cancel) call.signal.cancel();
+    }
+
+    /**
+     * Removes a caller that has cancelled. Must be called with the lock held.
+     *
+     * @return true if the request must be cancelled, because it was the last caller.
+     */
+    private boolean leaveLocked(String key, InFlight<V> call, Caller caller) {
+        if (caller.gone) return false;
+        caller.gone = true;
+        call.waiting--;
+        lock.notifyAll();
+        if (call.waiting > 0) return false;
+        if (call.done) {
+            if (call.value != null) call.request.discard(call.value);
+            return false;
+        }
+        // New callers must not join a request that is being cancelled.
+        if (inFlight.get(key) == call) inFlight.remove(key);
+        return true;
+    }
+}
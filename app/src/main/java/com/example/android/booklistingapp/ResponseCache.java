@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Persistent cache of the responses of the volumes endpoint of the Google Books API, keyed by the
+ * request url.
+ * <p>
+ * Every entry keeps the body of the response as received, together with the ETag and Last-Modified
+ * validators and the time it was fetched. An entry is fresh during {@link #TTL_MILLIS}; after that
+ * it can still be served for {@link #STALE_WHILE_REVALIDATE_MILLIS} while it is revalidated in the
+ * background with a conditional request. The cache evicts the least recently used entries when it
+ * grows beyond its byte budget.
+ * <p>
+ * All the methods of this class access the disk, so they must be called from a background thread.
+ */
+final class ResponseCache {
+    private static final String LOG_TAG = ResponseCache.class.getSimpleName();
+
+    static final long TTL_MILLIS = 10 * 60 * 1000;                          // 10 minutes.
+    static final long STALE_WHILE_REVALIDATE_MILLIS = 24 * 60 * 60 * 1000;  // 1 day.
+
+    private static final String CACHE_DIR = "responses";            // Subdirectory of the cache dir.
+    private static final long CACHE_BYTES = 5 * 1024 * 1024;        // Budget for the bodies.
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static ResponseCache instance;
+
+    private final File cacheDir;                    // Directory for the cached responses.
+    private final Object lock = new Object();       // Guards the files of the cache.
+
+    /**
+     * A cached response.
+     */
+    static class Entry {
+        private final File body;                    // File with the body of the response.
+        private final String eTag;                  // ETag header of the response, or "".
+        private final String lastModified;          // Last-Modified header of the response, or "".
+        private final long fetchedAt;               // Time of the last successful validation.
+
+        Entry(File body, String eTag, String lastModified, long fetchedAt) {
+            this.body = body;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /**
+         * Getters.
+         */
+        String getETag() {
+            return eTag;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns true if the entry can be served without revalidating it.
+         */
+        boolean isFresh() {
+            return System.currentTimeMillis() - fetchedAt < TTL_MILLIS;
+        }
+
+        /**
+         * Returns true if the entry can be served while it is revalidated in the background.
+         */
+        boolean isStaleWhileRevalidate() {
+            return System.currentTimeMillis() - fetchedAt < TTL_MILLIS + STALE_WHILE_REVALIDATE_MILLIS;
+        }
+
+        /**
+         * Opens the body of the cached response.
+         *
+         * @return a new stream with the body, which must be closed by the caller.
+         * @throws IOException
+         */
+        InputStream openBody() throws IOException {
+            return new FileInputStream(body);
+        }
+    }
+
+    /**
+     * Constructs a new {@link ResponseCache}. Use {@link #getInstance(Context)} instead.
+     *
+     * @param context of the app.
+     */
+    private ResponseCache(Context context) {
+        cacheDir = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    /**
+     * Returns the cache shared by all the components of the app.
+     *
+     * @param context of the app.
+     * @return the shared {@link ResponseCache}.
+     */
+    static synchronized ResponseCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ResponseCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the cached response for the given url, marking it as recently used.
+     *
+     * @param url is the request url.
+     * @return the cached response, or null if there is none.
+     */
+    Entry get(String url) {
+        synchronized (lock) {
+            String key = IoUtils.fileNameFor(url);
+            File body = new File(cacheDir, key + BODY_SUFFIX);
+            File meta = new File(cacheDir, key + META_SUFFIX);
+            if (!body.isFile() || !meta.isFile()) return null;
+
+            DataInputStream input = null;
+            try {
+                input = new DataInputStream(new FileInputStream(meta));
+                Entry entry = new Entry(body, input.readUTF(), input.readUTF(), input.readLong());
+                body.setLastModified(System.currentTimeMillis());
+                return entry;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem reading the cached response for " + url, e);
+                return null;
+            } finally {
+                IoUtils.closeQuietly(input);
+            }
+        }
+    }
+
+    /**
+     * Deletes the cached response for the given url, when it can't be read.
+     *
+     * @param url is the request url.
+     */
+    void remove(String url) {
+        synchronized (lock) {
+            String key = IoUtils.fileNameFor(url);
+            new File(cacheDir, key + BODY_SUFFIX).delete();
+            new File(cacheDir, key + META_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Marks the cached response for the given url as fresh again, after the server has confirmed
+     * with a "304 Not Modified" response that it has not changed.
+     *
+     * @param url   is the request url.
+     * @param entry is the cached response.
+     */
+    void touch(String url, Entry entry) {
+        synchronized (lock) {
+            writeMeta(url, entry.eTag, entry.lastModified);
+        }
+    }
+
+    /**
+     * Wraps the body of a network response so that everything read from it is also written to
+     * the cache. The entry is committed when the returned stream is closed, after reading the rest
+     * of the body, and discarded if anything goes wrong.
+     *
+     * @param url          is the request url.
+     * @param eTag         is the ETag header of the response, or null.
+     * @param lastModified is the Last-Modified header of the response, or null.
+     * @param body         is the body of the response.
+     * @return a new stream that must be read and closed instead of the original one.
+     */
+    CachingInputStream store(String url, String eTag, String lastModified, InputStream body) {
+        File temp = null;
+        OutputStream output = null;
+        try {
+            if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+                throw new IOException("Can't create directory " + cacheDir);
+            }
+            temp = File.createTempFile(IoUtils.fileNameFor(url), TEMP_SUFFIX, cacheDir);
+            output = new FileOutputStream(temp);
+        } catch (IOException e) {
+            // The response is still readable, it just won't be cached.
+            Log.e(LOG_TAG, "Problem creating the cached response for " + url, e);
+        }
+        return new CachingInputStream(body, output, temp, url,
+                eTag == null ? "" : eTag, lastModified == null ? "" : lastModified);
+    }
+
+    /**
+     * Commits a response whose body has been written to the given temporary file.
+     */
+    private void commit(String url, File temp, String eTag, String lastModified) {
+        synchronized (lock) {
+            File body = new File(cacheDir, IoUtils.fileNameFor(url) + BODY_SUFFIX);
+            if (!temp.renameTo(body)) {
+                Log.e(LOG_TAG, "Problem committing the cached response for " + url);
+                temp.delete();
+                return;
+            }
+            writeMeta(url, eTag, lastModified);
+            trim();
+        }
+    }
+
+    /**
+     * Writes the validators of a response, with the current time as the time of validation.
+     */
+    private void writeMeta(String url, String eTag, String lastModified) {
+        File meta = new File(cacheDir, IoUtils.fileNameFor(url) + META_SUFFIX);
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new FileOutputStream(meta));
+            output.writeUTF(eTag);
+            output.writeUTF(lastModified);
+            output.writeLong(System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the cached response for " + url, e);
+            meta.delete();
+        } finally {
+            IoUtils.closeQuietly(output);
+        }
+    }
+
+    /**
+     * Deletes the least recently used responses until the cache fits into its byte budget.
+     */
+    private void trim() {
+        File[] bodies = cacheDir.listFiles();
+        if (bodies == null) return;
+        long size = 0;
+        for (File body : bodies) size += body.length();
+        if (size <= CACHE_BYTES) return;
+
+        Arrays.sort(bodies, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long lastModified1 = file1.lastModified();
+                long lastModified2 = file2.lastModified();
+                return lastModified1 < lastModified2 ? -1 : (lastModified1 == lastModified2 ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < bodies.length && size > CACHE_BYTES; i++) {
+            String name = bodies[i].getName();
+            if (!name.endsWith(BODY_SUFFIX)) continue;
+            size -= bodies[i].length();
+            bodies[i].delete();
+            File meta = new File(cacheDir, name.substring(0, name.length() - BODY_SUFFIX.length()) + META_SUFFIX);
+            size -= meta.length();
+            meta.delete();
+        }
+    }
+
+    /**
+     * Input stream that copies everything it reads to a temporary file of the cache, and commits
+     * it as a new entry when it is closed, unless {@link #abort()} has been called.
+     */
+    class CachingInputStream extends FilterInputStream {
+        private final OutputStream output;
+        private final File temp;
+        private final String url;
+        private final String eTag;
+        private final String lastModified;
+        private boolean failed;
+
+        CachingInputStream(InputStream body, OutputStream output, File temp, String url, String eTag, String lastModified) {
+            super(body);
+            this.output = output;
+            this.temp = temp;
+            this.url = url;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            failed = output == null;
+        }
+
+        /**
+         * Discards the cached copy of the response, because it is not valid.
+         */
+        void abort() {
+            failed = true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            if (b != -1) copy(new byte[]{(byte) b}, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read;
+            try {
+                read = super.read(buffer, offset, count);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            if (read > 0) copy(buffer, offset, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes must be written to the cache too.
+            byte[] buffer = new byte[(int) Math.min(count, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return read < 0 ? 0 : read;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // Read whatever the parser left behind, so the cached body is complete.
+                if (!failed) {
+                    byte[] buffer = new byte[8192];
+                    while (read(buffer, 0, buffer.length) != -1) ;
+                }
+            } catch (IOException e) {
+                failed = true;
+            } finally {
+                IoUtils.closeQuietly(output);
+                super.close();
+                if (!failed) commit(url, temp, eTag, lastModified);
+                else if (temp != null) temp.delete();
+            }
+        }
+
+        private void copy(byte[] buffer, int offset, int count) {
+            if (failed) return;
+            try {
+                output.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem writing the cached response for " + url, e);
+                failed = true;
+            }
+        }
+    }
+}
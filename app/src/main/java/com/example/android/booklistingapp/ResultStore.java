@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.BookListCodec;
+
+/**
+ * Keeps the last loaded list of books of every query, so they can be delivered instantly when the
+ * activity is restarted instead of fetching and parsing them again.
+ * <p>
+ * Lists are kept in a small in-memory LRU cache, and also snapshotted to disk in a compact binary
+ * form, so they come back quickly after the process has been killed. Snapshots older than
+ * {@link ResponseCache#TTL_MILLIS} are ignored, except for the pinned searches, which are kept warm
+ * by the {@link RefreshJobService} and delivered for up to {@link #WARM_TTL_MILLIS}. The lists in
+ * memory are trimmed by the {@link MemoryGovernor} when the system is short of memory, as they
+ * can be read again from disk.
+ * <p>
+ * The methods that access the disk must be called from a background thread.
+ */
+final class ResultStore implements MemoryGovernor.Trimmable {
+    private static final String LOG_TAG = ResultStore.class.getSimpleName();
+
+    static final long WARM_TTL_MILLIS = 24 * 60 * 60 * 1000;  // 1 day.
+
+    private static final String SNAPSHOT_DIR = "results";   // Subdirectory of the files dir.
+    private static final int SNAPSHOT_VERSION = 1;          // Version of the snapshot format.
+    private static final int MEMORY_ENTRIES = 8;            // Number of lists kept in memory.
+
+    private static ResultStore instance;
+
+    private final LruCache<String, Snapshot> memoryCache;   // Last lists, by query url.
+    private final File snapshotDir;                         // Directory for the snapshots.
+    private final MemoryGovernor memoryGovernor;            // Governor of the retained memory.
+
+    /**
+     * A list of books, together with the time it was loaded.
+     */
+    private static class Snapshot {
+        private final List<Book> books;
+        private final long savedAt;
+        private final long bytes;               // Estimated memory retained by the books.
+
+        Snapshot(List<Book> books, long savedAt) {
+            this.books = books;
+            this.savedAt = savedAt;
+            bytes = estimateBytes(books);
+        }
+
+        boolean isFresh(long maxAgeMillis) {
+            return System.currentTimeMillis() - savedAt < maxAgeMillis;
+        }
+    }
+
+    /**
+     * Constructs a new {@link ResultStore}. Use {@link #getInstance(Context)} instead.
+     *
+     * @param context of the app.
+     */
+    private ResultStore(Context context) {
+        memoryCache = new LruCache<>(MEMORY_ENTRIES);
+        snapshotDir = new File(context.getFilesDir(), SNAPSHOT_DIR);
+        memoryGovernor = MemoryGovernor.getInstance(context);
+        memoryGovernor.register("results", this);
+    }
+
+    /**
+     * Returns the store shared by all the components of the app.
+     *
+     * @param context of the app.
+     * @return the shared {@link ResultStore}.
+     */
+    static synchronized ResultStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ResultStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the list of books kept in memory for the given query. This method does not touch the
+     * disk, so it can be called from the main thread.
+     *
+     * @param url is the query url.
+     * @return an unmodifiable list of books, or null if there is no fresh list in memory.
+     */
+    List<Book> getFromMemory(String url) {
+        return getFromMemory(url, ResponseCache.TTL_MILLIS);
+    }
+
+    /**
+     * Returns the list of books kept in memory for the given query, if it is not older than the
+     * given age. This method does not touch the disk, so it can be called from the main thread.
+     *
+     * @param url          is the query url.
+     * @param maxAgeMillis is the maximum age of the list, up to {@link #WARM_TTL_MILLIS}.
+     * @return an unmodifiable list of books, or null if there is no list that recent in memory.
+     */
+    List<Book> getFromMemory(String url, long maxAgeMillis) {
+        Snapshot snapshot = memoryCache.get(url);
+        return snapshot != null && snapshot.isFresh(maxAgeMillis) ? snapshot.books : null;
+    }
+
+    /**
+     * Returns the list of books kept for the given query, looking first in memory and then on
+     * disk. This method must be called from a background thread.
+     *
+     * @param url is the query url.
+     * @return an unmodifiable list of books, or null if there is no fresh list.
+     */
+    List<Book> get(String url) {
+        return get(url, ResponseCache.TTL_MILLIS);
+    }
+
+    /**
+     * Returns the list of books kept for the given query, if it is not older than the given age,
+     * looking first in memory and then on disk. This method must be called from a background
+     * thread.
+     *
+     * @param url          is the query url.
+     * @param maxAgeMillis is the maximum age of the list, up to {@link #WARM_TTL_MILLIS}.
+     * @return an unmodifiable list of books, or null if there is no list that recent.
+     */
+    List<Book> get(String url, long maxAgeMillis) {
+        List<Book> books = getFromMemory(url, maxAgeMillis);
+        if (books != null) return books;
+
+        Snapshot snapshot = readSnapshot(url);
+        if (snapshot == null || !snapshot.isFresh(maxAgeMillis)) return null;
+        memoryCache.put(url, snapshot);
+        memoryGovernor.sample();
+        return snapshot.books;
+    }
+
+    /**
+     * Keeps the list of books loaded for the given query, in memory and on disk. This method must
+     * be called from a background thread.
+     *
+     * @param url   is the query url.
+     * @param books is the list of books.
+     */
+    void put(String url, List<Book> books) {
+        Snapshot snapshot = new Snapshot(Collections.unmodifiableList(new ArrayList<>(books)), System.currentTimeMillis());
+        memoryCache.put(url, snapshot);
+        memoryGovernor.sample();
+        writeSnapshot(url, snapshot);
+    }
+
+    @Override
+    public void trimMemory(float keepFraction) {
+        memoryCache.trimToSize((int) (MEMORY_ENTRIES * keepFraction));
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        long bytes = 0;
+        for (Snapshot snapshot : memoryCache.snapshot().values()) bytes += snapshot.bytes;
+        return bytes;
+    }
+
+    /**
+     * Estimates the memory retained by a list of books: the objects, and the characters of their
+     * strings, two bytes each.
+     */
+    private static long estimateBytes(List<Book> books) {
+        long chars = 0;
+        for (Book book : books) {
+            chars += book.getId().length() + book.getTitle().length() + book.getAuthors().length()
+                    + book.getPublisher().length() + book.getPublishedDate().length()
+                    + book.getDescription().length() + book.getImageUrl().length() + book.getUrl().length();
+        }
+        // A book and its 8 strings take about 400 bytes besides the characters.
+        return books.size() * 400L + chars * 2;
+    }
+
+    /**
+     * Reads the snapshot of the given query from disk.
+     *
+     * @param url is the query url.
+     * @return the snapshot, or null if there is none or it can't be read.
+     */
+    private Snapshot readSnapshot(String url) {
+        File file = new File(snapshotDir, IoUtils.fileNameFor(url));
+        if (!file.isFile()) return null;
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != SNAPSHOT_VERSION || !input.readUTF().equals(url)) return null;
+            long savedAt = input.readLong();
+            List<Book> books = BookListCodec.read(input, file.length());
+            return new Snapshot(Collections.unmodifiableList(books), savedAt);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the results snapshot for " + url, e);
+            file.delete();
+            return null;
+        } finally {
+            IoUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Writes the snapshot of the given query to disk, replacing the previous one atomically.
+     *
+     * @param url      is the query url.
+     * @param snapshot is the snapshot.
+     */
+    private void writeSnapshot(String url, Snapshot snapshot) {
+        if (!snapshotDir.isDirectory() && !snapshotDir.mkdirs()) {
+            Log.e(LOG_TAG, "Problem creating the results snapshot directory " + snapshotDir);
+            return;
+        }
+        File file = new File(snapshotDir, IoUtils.fileNameFor(url));
+        File temp = new File(snapshotDir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            output.writeInt(SNAPSHOT_VERSION);
+            output.writeUTF(url);
+            output.writeLong(snapshot.savedAt);
+            BookListCodec.write(output, snapshot.books);
+            output.close();
+            output = null;
+            if (!temp.renameTo(file)) throw new IOException("Can't rename " + temp);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the results snapshot for " + url, e);
+            temp.delete();
+        } finally {
+            IoUtils.closeQuietly(output);
+        }
+        pruneSnapshots();
+    }
+
+    /**
+     * Deletes the snapshots that are too old for being delivered, so they don't pile up on disk.
+     */
+    private void pruneSnapshots() {
+        File[] files = snapshotDir.listFiles();
+        if (files == null) return;
+        long oldest = System.currentTimeMillis() - WARM_TTL_MILLIS;
+        for (File file : files) {
+            if (file.lastModified() < oldest) file.delete();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.OnBookParsedListener;
+import com.example.android.booklistingapp.core.VolumesQuery;
+
+/**
+ * Fetches more results than the Google Books API returns in a single page, by splitting the
+ * request into shards of consecutive start indexes that are fetched concurrently, so the time for
+ * a large result set stays close to the time of a single page.
+ * <p>
+ * The first shard is fetched on the calling thread and its books are handed out as soon as they
+ * are parsed, as for a single page. The remaining shards are fetched on a shared pool with a
+ * bounded number of threads, and their books are handed out in order once the shards before them
+ * are done, skipping the books already handed out by an earlier shard.
+ */
+final class ShardedFetcher {
+    private static final String LOG_TAG = ShardedFetcher.class.getSimpleName();
+
+    private static final int MAX_PARALLEL_SHARDS = 4;       // Shards fetched at the same time.
+    private static final long KEEP_ALIVE_SECONDS = 30;      // Idle time before a thread is released.
+
+    // Pool shared by all the sharded fetches, so the app never has more shards in flight than this.
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+        EXECUTOR = new ThreadPoolExecutor(MAX_PARALLEL_SHARDS, MAX_PARALLEL_SHARDS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private ShardedFetcher() {
+    }
+
+    /**
+     * Fetches the given number of results of a search, handing out every {@link Book} object to
+     * the given listener in the order of the results. A shard with no results ends the result
+     * set. A shard whose request failed fails the whole fetch, after the books of the shards before
+     * it have been handed out, so a truncated result set is not taken for a complete one.
+     *
+     * @param cache      is the cache of responses.
+     * @param query      is the search string.
+     * @param count      is the number of results to fetch.
+     * @param shardSize  is the number of results per shard (maximum 40).
+     * @param listener   is the listener that receives the parsed books.
+     * @param signal     is the signal for cancelling the fetch, or null. Cancelling the fetch
+     *                   cancels all its shards.
+     * @return true if all the results were fetched, or false if a shard failed.
+     * @throws OperationCanceledException if the fetch is cancelled.
+     */
+    static boolean fetch(final ResponseCache cache, String query, int count, int shardSize, final OnBookParsedListener listener, CancellationSignal signal) {
+        int shardCount = (count + shardSize - 1) / shardSize;
+
+        // Every request needs its own signal, as a signal only has room for the listener of one
+        // connection.
+        final List<CancellationSignal> shardSignals = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) shardSignals.add(new CancellationSignal());
+        final List<Future<List<Book>>> futures = new ArrayList<>(shardCount);
+        if (signal != null) {
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    for (CancellationSignal shardSignal : shardSignals) shardSignal.cancel();
+                }
+            });
+        }
+
+        try {
+            // Start the shards after the first one in the background.
+            for (int i = 1; i < shardCount; i++) {
+                final String url = VolumesQuery.buildUrl(query, i * shardSize, Math.min(shardSize, count - i * shardSize));
+                final CancellationSignal shardSignal = shardSignals.get(i);
+                futures.add(EXECUTOR.submit(new Callable<List<Book>>() {
+                    @Override
+                    public List<Book> call() {
+                        return QueryUtils.fetchBookData(cache, url, shardSignal);
+                    }
+                }));
+            }
+
+            // Stream the first shard on this thread.
+            final Set<String> ids = new HashSet<>();
+            final int[] handedOut = {0};
+            boolean served = QueryUtils.fetchBookData(cache, VolumesQuery.buildUrl(query, 0, Math.min(shardSize, count)), new OnBookParsedListener() {
+                @Override
+                public void onBookParsed(Book book) {
+                    ids.add(book.getId());
+                    handedOut[0]++;
+                    listener.onBookParsed(book);
+                }
+            }, shardSignals.get(0));
+
+            // Merge the other shards in order, as they complete.
+            if (!served || handedOut[0] == 0) return served;
+            for (Future<List<Book>> future : futures) {
+                List<Book> books = await(future);
+                if (signal != null) signal.throwIfCanceled();
+                if (books == null) return false;
+                if (books.isEmpty()) return true;
+                for (Book book : books) {
+                    String id = book.getId();
+                    if (id.isEmpty() || ids.add(id)) listener.onBookParsed(book);
+                }
+            }
+            return true;
+        } finally {
+            // Don't keep fetching shards that are not going to be merged.
+            for (int i = 0; i < futures.size(); i++) {
+                shardSignals.get(i + 1).cancel();
+                futures.get(i).cancel(true);
+            }
+            if (signal != null) signal.setOnCancelListener(null);
+        }
+    }
+
+    /**
+     * Waits for the result of a shard.
+     *
+     * @param future is the pending result of the shard.
+     * @return the books of the shard, empty if it has no results, or null if it failed.
+     * @throws OperationCanceledException if the shard was cancelled.
+     */
+    private static List<Book> await(Future<List<Book>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof OperationCanceledException) {
+                throw (OperationCanceledException) e.getCause();
+            }
+            Log.e(LOG_TAG, "Problem fetching a shard of the results.", e.getCause());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adapter of the autocomplete suggestions of a search field, served by the {@link QueryHistory}.
+ */
+class SuggestionAdapter extends ArrayAdapter<String> {
+    private final QueryHistory queryHistory;    // Source of the suggestions.
+    private final int limit;                    // Maximum number of suggestions.
+    private final Filter filter;
+
+    /**
+     * Constructs a new {@link SuggestionAdapter}.
+     *
+     * @param context of the app.
+     */
+    SuggestionAdapter(Context context) {
+        super(context, android.R.layout.simple_dropdown_item_1line, new ArrayList<String>());
+        queryHistory = QueryHistory.getInstance(context);
+        limit = context.getResources().getInteger(R.integer.suggestion_limit);
+        filter = new Filter() {
+            @Override
+            protected FilterResults performFiltering(CharSequence constraint) {
+                // Runs on the worker thread of the filter.
+                List<String> suggestions = constraint == null
+                        ? new ArrayList<String>() : queryHistory.suggest(constraint.toString(), limit);
+                FilterResults results = new FilterResults();
+                results.values = suggestions;
+                results.count = suggestions.size();
+                return results;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            protected void publishResults(CharSequence constraint, FilterResults results) {
+                setNotifyOnChange(false);
+                clear();
+                if (results.values != null) addAll((List<String>) results.values);
+                notifyDataSetChanged();
+            }
+        };
+    }
+
+    @Override
+    public Filter getFilter() {
+        return filter;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that measures the time spent blocked in the reads of the wrapped stream, so the
+ * time spent waiting for a response can be told apart from the time spent processing it while it
+ * is streamed.
+ */
+class TimingInputStream extends FilterInputStream {
+    private long readNanos;     // Time spent in the reads of the wrapped stream.
+
+    TimingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Returns the time spent in the reads of the wrapped stream so far, in nanoseconds.
+     */
+    long getReadNanos() {
+        return readNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read();
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read(buffer, offset, count);
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.skip(count);
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.os.AsyncTask;
+import android.os.CancellationSignal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import com.example.android.booklistingapp.core.Metrics;
+
+/**
+ * Default {@link HttpTransport}, built on {@link HttpURLConnection}.
+ * <p>
+ * Connections are kept alive and pooled by the platform: a response releases its connection to the
+ * pool when its body has been completely read and closed, instead of disconnecting it, so the
+ * requests for the many covers served by the same host reuse a handful of connections. Responses
+ * are negotiated gzip-compressed and decompressed transparently. The time for connecting and the
+ * time until the response code is received are recorded in the {@link Metrics}.
+ */
+class UrlConnectionTransport implements HttpTransport {
+    // Request headers for negotiating a gzip-compressed response. Google APIs only compress the
+    // response if the user agent contains the string "gzip" too.
+    private static final String USER_AGENT = "BookListingApp/" + BuildConfig.VERSION_NAME + " (gzip)";
+    private static final String GZIP = "gzip";
+
+    // Maximum number of idle connections kept alive per host. The default of the platform is 5,
+    // fewer than the covers requested in parallel plus the volumes requests.
+    private static final String MAX_CONNECTIONS = "8";
+
+    static {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", MAX_CONNECTIONS);
+    }
+
+    private final int connectTimeoutMillis;    // Timeout for establishing a connection.
+    private final int readTimeoutMillis;       // Timeout for every read of the response.
+
+    /**
+     * Constructs a new {@link UrlConnectionTransport}.
+     *
+     * @param connectTimeoutMillis is the timeout for establishing a connection, in milliseconds.
+     * @param readTimeoutMillis    is the timeout for every read of the response, in milliseconds.
+     */
+    UrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> headers, CancellationSignal signal) throws IOException {
+        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        if (signal != null) {
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    // Requests are usually cancelled from the main thread, and closing a secure
+                    // connection can write to the network, so do it on a background thread.
+                    AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            urlConnection.disconnect();
+                        }
+                    });
+                }
+            });
+        }
+        try {
+            urlConnection.setConnectTimeout(connectTimeoutMillis);
+            urlConnection.setReadTimeout(readTimeoutMillis);
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setRequestProperty("Accept-Encoding", GZIP);
+            urlConnection.setRequestProperty("User-Agent", USER_AGENT);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            long start = Metrics.now();
+            urlConnection.connect();
+            Metrics.getInstance().record(Metrics.STAGE_CONNECT, start);
+        } catch (IOException e) {
+            if (signal != null) signal.setOnCancelListener(null);
+            urlConnection.disconnect();
+            throw e;
+        }
+        return new UrlConnectionResponse(urlConnection, signal);
+    }
+
+    /**
+     * A response read from an {@link HttpURLConnection}.
+     */
+    private static class UrlConnectionResponse implements Response {
+        private final HttpURLConnection urlConnection;
+        private final CancellationSignal signal;
+        private final long connectedAt;     // Time when the connection was established.
+        private boolean firstByteRecorded;  // True once the response code has been received.
+        private InputStream body;
+
+        UrlConnectionResponse(HttpURLConnection urlConnection, CancellationSignal signal) {
+            this.urlConnection = urlConnection;
+            this.signal = signal;
+            connectedAt = Metrics.now();
+        }
+
+        @Override
+        public int getCode() throws IOException {
+            int code = urlConnection.getResponseCode();
+            if (!firstByteRecorded) {
+                firstByteRecorded = true;
+                Metrics.getInstance().record(Metrics.STAGE_FIRST_BYTE, connectedAt);
+            }
+            return code;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return urlConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = urlConnection.getInputStream();
+                if (GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                    body = new GZIPInputStream(body);
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (signal != null) signal.setOnCancelListener(null);
+
+            // Closing the body without disconnecting returns the connection to the pool. Error
+            // responses and responses whose body was never opened are closed too, so the platform
+            // can either reuse the connection or release it.
+            try {
+                InputStream inputStream = body;
+                if (inputStream == null) {
+                    inputStream = getCode() < HttpURLConnection.HTTP_BAD_REQUEST
+                            ? urlConnection.getInputStream() : urlConnection.getErrorStream();
+                }
+                if (inputStream != null) inputStream.close();
+            } catch (IOException e) {
+                // The connection is broken, so it can't be reused.
+                urlConnection.disconnect();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Recorded baselines of the load tests, in "baselines.properties". A measure fails its test when
+ * it goes past its baseline by more than its tolerance, so regressions fail the build.
+ * <p>
+ * Allocations don't depend on the machine, so they are always checked, with a tight tolerance.
+ * Latencies do, so they are only checked when the "baselines.latency" system property is set, with
+ * a generous tolerance, and only printed otherwise.
+ * <p>
+ * Baselines are recorded again by running the tests with "-PrecordBaselines": measures are then
+ * written to the file given by the "baselines.output" system property instead of checked, and the
+ * file can be copied over the resource once the new numbers have been reviewed.
+ */
+final class Baselines {
+    private static final String RESOURCE = "baselines.properties";
+    private static final String TOLERANCE = "tolerance";
+    private static final String LATENCY_TOLERANCE = "latencyTolerance";
+
+    private static final Properties BASELINES = new Properties();
+
+    static {
+        try {
+            InputStream input = Baselines.class.getClassLoader().getResourceAsStream(RESOURCE);
+            if (input == null) throw new IOException("Missing " + RESOURCE);
+            try {
+                BASELINES.load(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Baselines() {
+    }
+
+    /**
+     * Checks an allocation against its baseline, or records it in recording mode.
+     *
+     * @param name     is the name of the baseline.
+     * @param measured is the measured allocation. Lower is better.
+     */
+    static void checkAllocation(String name, double measured) {
+        check(name, measured, TOLERANCE);
+    }
+
+    /**
+     * Checks a latency against its baseline if latencies are checked, or records it in recording
+     * mode.
+     *
+     * @param name     is the name of the baseline.
+     * @param measured is the measured latency. Lower is better.
+     */
+    static void checkLatency(String name, double measured) {
+        if (Boolean.getBoolean("baselines.latency") || Boolean.getBoolean("baselines.record")) {
+            check(name, measured, LATENCY_TOLERANCE);
+        } else {
+            System.out.println(String.format(Locale.US, "%s: measured %.1f, baseline %s, not checked",
+                    name, measured, BASELINES.getProperty(name)));
+        }
+    }
+
+    /**
+     * Checks a measure against its baseline with the given tolerance, or records it in recording
+     * mode.
+     */
+    private static synchronized void check(String name, double measured, String tolerance) {
+        if (Boolean.getBoolean("baselines.record")) {
+            record(name, measured);
+            return;
+        }
+        String baseline = BASELINES.getProperty(name);
+        if (baseline == null) fail("No baseline for " + name + ", measured " + measured);
+        double limit = Double.parseDouble(baseline) * (1 + Double.parseDouble(BASELINES.getProperty(tolerance, "0")));
+        System.out.println(String.format(Locale.US, "%s: measured %.1f, baseline %s, limit %.1f", name, measured, baseline, limit));
+        assertTrue(String.format(Locale.US, "%s regressed: measured %.1f, limit %.1f (baseline %s)", name, measured, limit, baseline),
+                measured <= limit);
+    }
+
+    /**
+     * Adds a measure to the file of recorded baselines.
+     */
+    private static void record(String name, double measured) {
+        File file = new File(System.getProperty("baselines.output", RESOURCE));
+        Properties recorded = new Properties();
+        try {
+            if (file.isFile()) {
+                InputStream input = new FileInputStream(file);
+                try {
+                    recorded.load(input);
+                } finally {
+                    input.close();
+                }
+            }
+            for (String tolerance : new String[]{TOLERANCE, LATENCY_TOLERANCE}) {
+                if (!recorded.containsKey(tolerance)) recorded.setProperty(tolerance, BASELINES.getProperty(tolerance, "0"));
+            }
+            recorded.setProperty(name, String.format(Locale.US, "%.0f", Math.ceil(measured)));
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) throw new IOException("Can't create " + parent);
+            OutputStream output = new FileOutputStream(file);
+            try {
+                recorded.store(output, "Recorded baselines of the load tests");
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            throw new AssertionError("Problem recording the baseline " + name, e);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Resources;
+import android.os.CancellationSignal;
+import android.widget.ImageView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.example.android.booklistingapp.core.Book;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the requests of the {@link CoverLoader} for the rows that move in the list without
+ * being bound again, as when a page of results is prepended or dropped. The covers are never
+ * delivered, as the framework stubs don't run the posted results, so a request that is still
+ * pending keeps the book as the tag of its view, and a cancelled one clears it.
+ */
+public class CoverLoaderTest {
+    private static final int PAGE_SIZE = 40;            // Rows of a page of results.
+    private static final int VISIBLE_ROWS = 6;          // Rows on screen.
+    private static final int KEEP_ROWS = 10;            // Rows around the visible ones kept.
+
+    private static Context context;
+
+    private CoverLoader coverLoader;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        final File cacheDir = File.createTempFile("covers", "");
+        if (!cacheDir.delete() || !cacheDir.mkdirs()) throw new IOException("Can't create " + cacheDir);
+        // The activity manager has no public constructor, and its stub does nothing.
+        Constructor<?> constructor = ActivityManager.class.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        final ActivityManager activityManager = (ActivityManager) constructor.newInstance(new Object[constructor.getParameterTypes().length]);
+        final Resources resources = new Resources(null, null, null);
+        context = new ContextWrapper(null) {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public File getCacheDir() {
+                return cacheDir;
+            }
+
+            @Override
+            public Resources getResources() {
+                return resources;
+            }
+
+            @Override
+            public Object getSystemService(String name) {
+                return Context.ACTIVITY_SERVICE.equals(name) ? activityManager : null;
+            }
+        };
+
+        // The covers are not downloaded, so their requests fail on their own.
+        QueryUtils.setTransport(new HttpTransport() {
+            @Override
+            public Response get(URL url, Map<String, String> headers, CancellationSignal signal) throws IOException {
+                throw new IOException("No network in the tests");
+            }
+        });
+    }
+
+    @Before
+    public void createCoverLoader() {
+        coverLoader = new CoverLoader(context);
+    }
+
+    @After
+    public void shutdownCoverLoader() {
+        coverLoader.shutdown();
+    }
+
+    @Test
+    public void visibleCoversKeepLoadingWhenPageIsPrepended() {
+        List<Book> page = books("second", PAGE_SIZE);
+        List<ImageView> views = loadVisibleRows(page, 0);
+
+        // The rows don't move on screen, but they are a page further down the list.
+        coverLoader.getPositionObserver().onItemRangeInserted(0, PAGE_SIZE);
+        coverLoader.setViewport(PAGE_SIZE, PAGE_SIZE + VISIBLE_ROWS - 1, 0, KEEP_ROWS);
+
+        for (int i = 0; i < VISIBLE_ROWS; i++) assertSame(page.get(i), views.get(i).getTag());
+    }
+
+    @Test
+    public void visibleCoversKeepLoadingWhenPageIsDropped() {
+        List<Book> page = books("second", PAGE_SIZE);
+        List<ImageView> views = loadVisibleRows(page, PAGE_SIZE);
+
+        // The first page is dropped when the third one is appended.
+        coverLoader.getPositionObserver().onItemRangeRemoved(0, PAGE_SIZE);
+        coverLoader.setViewport(0, VISIBLE_ROWS - 1, 1, KEEP_ROWS);
+
+        for (int i = 0; i < VISIBLE_ROWS; i++) assertSame(page.get(i), views.get(i).getTag());
+    }
+
+    @Test
+    public void visibleCoversKeepLoadingWhenRowsMove() {
+        List<Book> page = books("first", PAGE_SIZE);
+        List<ImageView> views = loadVisibleRows(page, 0);
+
+        // A row from far below moves to the top, and the visible rows move down by one.
+        coverLoader.getPositionObserver().onItemRangeMoved(PAGE_SIZE - 1, 0, 1);
+        coverLoader.setViewport(1, VISIBLE_ROWS, 0, 0);
+
+        for (int i = 0; i < VISIBLE_ROWS; i++) assertSame(page.get(i), views.get(i).getTag());
+    }
+
+    @Test
+    public void coversOfFarRowsAreCancelledAfterRowsMove() {
+        List<Book> page = books("second", PAGE_SIZE);
+        List<ImageView> views = loadVisibleRows(page, 0);
+
+        // The rows are a page further down the list, and the list is scrolled back to its top.
+        coverLoader.getPositionObserver().onItemRangeInserted(0, PAGE_SIZE);
+        coverLoader.setViewport(0, VISIBLE_ROWS - 1, -1, KEEP_ROWS);
+
+        for (ImageView view : views) assertNull(view.getTag());
+    }
+
+    @Test
+    public void coversOfRemovedRowsAreCancelled() {
+        List<Book> page = books("first", PAGE_SIZE);
+        List<ImageView> views = loadVisibleRows(page, 0);
+
+        coverLoader.getPositionObserver().onItemRangeRemoved(0, VISIBLE_ROWS);
+        coverLoader.setViewport(0, VISIBLE_ROWS - 1, 0, KEEP_ROWS);
+
+        for (ImageView view : views) assertNull(view.getTag());
+    }
+
+    /**
+     * Loads the covers of the first rows of the given page, as the list binds them, and sets them
+     * as the visible rows.
+     *
+     * @param page     is the page of books.
+     * @param position is the position of the first book of the page in the list.
+     * @return the views of the rows, in order.
+     */
+    private List<ImageView> loadVisibleRows(List<Book> page, int position) {
+        List<ImageView> views = new ArrayList<>();
+        for (int i = 0; i < VISIBLE_ROWS; i++) {
+            ImageView view = new TaggedImageView();
+            coverLoader.load(page.get(i), position + i, view);
+            views.add(view);
+        }
+        coverLoader.setViewport(position, position + VISIBLE_ROWS - 1, 0, KEEP_ROWS);
+        for (int i = 0; i < VISIBLE_ROWS; i++) assertSame(page.get(i), views.get(i).getTag());
+        return views;
+    }
+
+    /**
+     * Returns a page of books with covers.
+     */
+    private static List<Book> books(String name, int count) {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String id = name + "-" + i;
+            books.add(new Book(id, "Book " + id, "", "", "", 0, 0, "", "http://books.google.com/books/content?id=" + id, ""));
+        }
+        return books;
+    }
+
+    /**
+     * Image view that keeps its tag, which the framework stubs don't.
+     */
+    private static class TaggedImageView extends ImageView {
+        private Object tag;
+
+        TaggedImageView() {
+            super(null);
+        }
+
+        @Override
+        public void setTag(Object tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public Object getTag() {
+            return tag;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.CancellationSignal;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.example.android.booklistingapp.core.Book;
+import com.example.android.booklistingapp.core.MockBooksServer;
+import com.example.android.booklistingapp.core.OnBookParsedListener;
+import com.example.android.booklistingapp.core.VolumesQuery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Load tests of the fetch path of the app against a {@link MockBooksServer}: searches are loaded
+ * by {@link BookLoader#loadInBackground()}, through the {@link ResultStore}, {@link QueryUtils},
+ * its {@link RequestCoalescer} and the {@link ResponseCache}, and searches of more than a page by
+ * the {@link ShardedFetcher}, with the default {@link UrlConnectionTransport} pointed at the local
+ * server.
+ * <p>
+ * Every test runs many searches in parallel and checks their results. The bytes allocated per
+ * search are checked against their recorded {@link Baselines}, and so are the p50 and p95
+ * latencies when they are enabled, as they depend on the machine.
+ */
+public class SearchLoadTest {
+    private static final int CLIENTS = 8;               // Searches in parallel.
+    private static final int REQUESTS_PER_CLIENT = 25;  // Searches of every client.
+    private static final int MEASURED_SEARCHES = 50;    // Searches measured for their allocation.
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static File dir;                            // Storage of the app.
+    private static Context context;
+    private static ResponseCache cache;
+    private static volatile MockBooksServer server;     // Server of the running test.
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        dir = File.createTempFile("app", "");
+        if (!dir.delete() || !dir.mkdirs()) throw new IOException("Can't create " + dir);
+        context = new ContextWrapper(null) {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public File getCacheDir() {
+                return new File(dir, "cache");
+            }
+
+            @Override
+            public File getFilesDir() {
+                return new File(dir, "files");
+            }
+        };
+
+        // The loaders get their context from the stubbed framework, so the shared instances are
+        // created up front. The stubs keep nothing in an LruCache and have no SQLite database, so
+        // the memory of the results isn't counted and the books aren't stored.
+        cache = ResponseCache.getInstance(context);
+        ResultStore.getInstance(context);
+        MemoryGovernor.getInstance(context).register("results", new MemoryGovernor.Trimmable() {
+            @Override
+            public void trimMemory(float keepFraction) {
+            }
+
+            @Override
+            public long getRetainedBytes() {
+                return 0;
+            }
+        });
+        Field writeExecutor = BookDatabase.class.getDeclaredField("writeExecutor");
+        writeExecutor.setAccessible(true);
+        writeExecutor.set(BookDatabase.getInstance(context), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        });
+
+        // Send the requests for the Google Books API to the server of the running test.
+        final HttpTransport transport = new UrlConnectionTransport(TIMEOUT_MILLIS, TIMEOUT_MILLIS);
+        QueryUtils.setTransport(new HttpTransport() {
+            @Override
+            public Response get(URL url, Map<String, String> headers, CancellationSignal signal) throws IOException {
+                return transport.get(new URL(new URL(server.getBaseUrl()), url.getFile()), headers, signal);
+            }
+        });
+    }
+
+    @Before
+    public void clearStorage() {
+        // Every test starts without stored responses and results, as their number changes the
+        // work of pruning them.
+        deleteContents(dir);
+    }
+
+    @Test
+    public void concurrentSearches() throws Exception {
+        server = new MockBooksServer(new MockBooksServer.Scenario().latency(20).bandwidth(1024 * 1024));
+        try {
+            List<Result> results = runConcurrently(new Search() {
+                @Override
+                public List<Book> perform(String query) {
+                    return load(VolumesQuery.buildUrl(query, 0, 40));
+                }
+            }, "search");
+            for (Result result : results) {
+                assertNotNull(result.books);
+                assertEquals(40, result.books.size());
+            }
+            assertEquals(CLIENTS * REQUESTS_PER_CLIENT, server.getRequestCount());
+            checkLatency("search.40", results);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void concurrentIdenticalSearchesAreCoalesced() throws Exception {
+        server = new MockBooksServer(new MockBooksServer.Scenario().latency(200));
+        try {
+            List<Result> results = runConcurrently(new Search() {
+                @Override
+                public List<Book> perform(String query) {
+                    return load(VolumesQuery.buildUrl("coalesced", 0, 40));
+                }
+            }, "coalesced");
+            for (Result result : results) {
+                assertNotNull(result.books);
+                assertEquals(40, result.books.size());
+            }
+            // One request in flight for the concurrent searches, and the stored result for the
+            // later ones.
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void concurrentShardedSearches() throws Exception {
+        server = new MockBooksServer(new MockBooksServer.Scenario().latency(20).uniquePages());
+        try {
+            List<Result> results = runConcurrently(new ShardedSearch(), "sharded");
+            for (Result result : results) {
+                assertNotNull(result.books);
+                assertEquals(ShardedSearch.COUNT, result.books.size());
+            }
+            assertEquals(CLIENTS * REQUESTS_PER_CLIENT * 5, server.getRequestCount());
+            checkLatency("search.sharded", results);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void concurrentSearchesWithErrors() throws Exception {
+        server = new MockBooksServer(new MockBooksServer.Scenario().latency(20).errorRate(0.2));
+        try {
+            List<Result> results = runConcurrently(new Search() {
+                @Override
+                public List<Book> perform(String query) {
+                    return load(VolumesQuery.buildUrl(query, 0, 40));
+                }
+            }, "error");
+            int failed = 0;
+            for (Result result : results) {
+                if (result.books == null) {
+                    failed++;
+                } else {
+                    assertEquals(40, result.books.size());
+                }
+            }
+            // Failed searches must fail fast and not break the successful ones.
+            assertEquals(server.getErrorCount(), failed);
+            assertFalse(failed == results.size());
+            checkLatency("search.errors", results);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void searchAllocation() throws Exception {
+        server = new MockBooksServer(new MockBooksServer.Scenario());
+        try {
+            Baselines.checkAllocation("search.40.allocatedKb", measureAllocatedKb(new Search() {
+                @Override
+                public List<Book> perform(String query) {
+                    return load(VolumesQuery.buildUrl(query, 0, 40));
+                }
+            }, "allocated"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void shardedSearchAllocation() throws Exception {
+        server = new MockBooksServer(new MockBooksServer.Scenario().uniquePages());
+        try {
+            Baselines.checkAllocation("search.sharded.allocatedKb", measureAllocatedKb(new ShardedSearch(), "allocated-sharded"));
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Loads the given url with a new {@link BookLoader}, as the app does for the next pages of a
+     * search. Loaders without partial results don't need the main thread.
+     *
+     * @return the loaded books, or null if the search failed.
+     */
+    private static List<Book> load(String url) {
+        return new BookLoader(context, url).loadInBackground();
+    }
+
+    /**
+     * A search performed by a client.
+     */
+    private interface Search {
+        /**
+         * Performs the search.
+         *
+         * @return the books, or null if the search was not served.
+         */
+        List<Book> perform(String query);
+    }
+
+    /**
+     * A search of 5 pages of results, fetched in shards as {@link BookLoader} does.
+     */
+    private static class ShardedSearch implements Search {
+        static final int COUNT = 5 * VolumesQuery.MAX_RESULTS;
+
+        @Override
+        public List<Book> perform(String query) {
+            final List<Book> books = new ArrayList<>();
+            boolean served = ShardedFetcher.fetch(cache, query, COUNT, VolumesQuery.MAX_RESULTS, new OnBookParsedListener() {
+                @Override
+                public void onBookParsed(Book book) {
+                    books.add(book);
+                }
+            }, null);
+            return served ? books : null;
+        }
+    }
+
+    /**
+     * Result of a search.
+     */
+    private static class Result {
+        final List<Book> books;     // Books, or null if the search was not served.
+        final long nanos;           // Latency.
+
+        Result(List<Book> books, long nanos) {
+            this.books = books;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Performs the searches of all the clients in parallel, every one with a different query
+     * starting with the given prefix, and returns their results.
+     */
+    private static List<Result> runConcurrently(final Search search, final String prefix) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Future<List<Result>>> futures = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                final int client = i;
+                futures.add(executor.submit(new Callable<List<Result>>() {
+                    @Override
+                    public List<Result> call() {
+                        List<Result> results = new ArrayList<>();
+                        for (int j = 0; j < REQUESTS_PER_CLIENT; j++) {
+                            long start = System.nanoTime();
+                            List<Book> books = search.perform(prefix + client + "-" + j);
+                            results.add(new Result(books, System.nanoTime() - start));
+                        }
+                        return results;
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<List<Result>> future : futures) results.addAll(future.get());
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Performs searches one at a time, after as many for warming up, and returns the mean number
+     * of kilobytes they allocated, on all the threads of the app.
+     */
+    private static double measureAllocatedKb(Search search, String prefix) {
+        for (int i = 0; i < MEASURED_SEARCHES; i++) search.perform(prefix + "-warm-up-" + i);
+        long before = allocatedBytes();
+        for (int i = 0; i < MEASURED_SEARCHES; i++) assertNotNull(search.perform(prefix + "-" + i));
+        return (allocatedBytes() - before) / 1024.0 / MEASURED_SEARCHES;
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the live threads, except those of the
+     * servers.
+     */
+    private static long allocatedBytes() {
+        long bytes = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!MockBooksServer.isServerThread(thread)) bytes += Math.max(0, THREADS.getThreadAllocatedBytes(thread.getId()));
+        }
+        return bytes;
+    }
+
+    /**
+     * Checks the p50 and p95 latencies of the given results, in milliseconds, against their
+     * baselines.
+     */
+    private static void checkLatency(String name, List<Result> results) {
+        long[] nanos = new long[results.size()];
+        for (int i = 0; i < nanos.length; i++) nanos[i] = results.get(i).nanos;
+        Arrays.sort(nanos);
+        Baselines.checkLatency(name + ".p50Ms", nanos[(nanos.length - 1) / 2] / 1e6);
+        Baselines.checkLatency(name + ".p95Ms", nanos[(nanos.length - 1) * 95 / 100] / 1e6);
+    }
+
+    /**
+     * Deletes the files and directories in the given directory.
+     */
+    private static void deleteContents(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            deleteContents(file);
+            if (!file.delete()) throw new IllegalStateException("Can't delete " + file);
+        }
+    }
+}
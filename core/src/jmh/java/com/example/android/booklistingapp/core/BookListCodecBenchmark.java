@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and the latency percentiles of encoding and decoding the snapshots of
+ * the lists of books kept by the app, which replace parsing the response when a search is
+ * restored. Run with the "gc" profiler for the allocation rate per snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BookListCodecBenchmark {
+    @Param({"10", "40", "1000"})
+    int items;
+
+    private List<Book> books;
+    private byte[] snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        books = new ArrayList<>();
+        VolumesParser.parse(new ByteArrayInputStream(Fixtures.volumes(items)), new OnBookParsedListener() {
+            @Override
+            public void onBookParsed(Book book) {
+                books.add(book);
+            }
+        });
+        snapshot = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BookListCodec.write(new DataOutputStream(output), books);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public List<Book> decode() throws IOException {
+        return BookListCodec.read(new DataInputStream(new ByteArrayInputStream(snapshot)), snapshot.length);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of re-sorting and filtering the loaded results on the device, and of
+ * computing the sort keys of a new list of books.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BookQueryEngineBenchmark {
+    @Param({"40", "1000", "5000"})
+    int items;
+
+    @Param({"RATING", "NEWEST", "PUBLISHER"})
+    SortOrder order;
+
+    private List<Book> books;
+    private BookQueryEngine engine;
+    private BookFilter filter;
+
+    @Setup
+    public void setUp() throws IOException {
+        books = new ArrayList<>();
+        // Parse every copy of the fixture on its own, so the books are different objects.
+        while (books.size() < items) {
+            VolumesParser.parse(new ByteArrayInputStream(Fixtures.volumes(40)), new OnBookParsedListener() {
+                @Override
+                public void onBookParsed(Book book) {
+                    if (books.size() < items) books.add(book);
+                }
+            });
+        }
+        engine = new BookQueryEngine();
+        engine.update(books);
+        filter = new BookFilter().minStars(3);
+    }
+
+    @Benchmark
+    public List<Book> sort() {
+        return engine.query(new BookFilter(), order);
+    }
+
+    @Benchmark
+    public List<Book> filterAndSort() {
+        return engine.query(filter, order);
+    }
+
+    @Benchmark
+    public BookQueryEngine computeKeys() {
+        BookQueryEngine newEngine = new BookQueryEngine();
+        newEngine.update(books);
+        return newEngine;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of the autocomplete suggestions for every keystroke, and of rebuilding the
+ * trie from the query history and the loaded books.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SuggestionTrieBenchmark {
+    @Param({"1000", "20000"})
+    int terms;
+
+    @Param({"a", "the", "harry pot"})
+    String prefix;
+
+    private SuggestionTrie.Builder builder;
+    private SuggestionTrie trie;
+
+    @Setup
+    public void setUp() throws IOException {
+        builder = new SuggestionTrie.Builder();
+        // Number the titles of the fixture, so the terms are different and share their prefixes.
+        final int[] count = new int[1];
+        while (count[0] < terms) {
+            VolumesParser.parse(new ByteArrayInputStream(Fixtures.volumes(40)), new OnBookParsedListener() {
+                @Override
+                public void onBookParsed(Book book) {
+                    if (count[0] >= terms) return;
+                    builder.add(book.getTitle() + " " + count[0], count[0] % 97);
+                    builder.add(book.getAuthors(), 1);
+                    count[0]++;
+                }
+            });
+        }
+        builder.add("harry potter", 50);
+        builder.add("the hobbit", 50);
+        trie = builder.build();
+    }
+
+    @Benchmark
+    public List<String> suggest() {
+        return trie.suggest(prefix, 8);
+    }
+
+    @Benchmark
+    public SuggestionTrie build() {
+        return builder.build();
+    }
+}
@@ -13,14 +13,13 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.example.android.booklistingapp;
-
-import android.graphics.Bitmap;
+package com.example.android.booklistingapp.core;
 
 /**
- * An {@link Book} object contains information related to a single earthquake.
+ * An {@link Book} object contains information related to a single book.
  */
-class Book {
+public class Book {
+    private String id;              // Unique identifier of the volume at Google Books.
     private String title;           // Title of the book.
     private String authors;         // Authors of the books, comma separated.
     private String publisher;       // Publisher of the book.
@@ -28,12 +27,13 @@ class Book {
     private int pages;              // Number of pages of the book.
     private int stars;              // Book rating based on readers' reviews (maximum 5).
     private String description;     // Short description of the book.
-    private Bitmap image;           // Bitmap image of the cover of the book.
+    private String imageUrl;        // Url for the small thumbnail of the cover of the book.
     private String url;             // Url for the webpage of the book at play.google.com.
 
     /**
      * Constructs a new {@link Book} object.
      *
+     * @param id            is the unique identifier of the volume at Google Books.
      * @param title         is the title of the book.
      * @param authors       is the list of authors.
      * @param publisher     is the publisher of the book.
@@ -41,10 +41,11 @@ class Book {
      * @param pages         is the number of pages.
      * @param stars         is the rating of the book.
      * @param description   is the short description of the book.
-     * @param image         is the bitmap image with the cover of the book.
+     * @param imageUrl      is the url for the small thumbnail of the cover of the book.
      * @param url           is the url for the webpage of the book at play.google.com.
      */
-    Book(String title, String authors, String publisher, String publishedDate, int pages, int stars, String description, Bitmap image, String url) {
+    public Book(String id, String title, String authors, String publisher, String publishedDate, int pages, int stars, String description, String imageUrl, String url) {
+        this.id = id;
         this.title = title;
         this.authors = authors;
         this.publisher = publisher;
@@ -52,46 +53,75 @@ class Book {
         this.pages = pages;
         this.stars = stars;
         this.description = description;
-        this.image = image;
+        this.imageUrl = imageUrl;
         this.url = url;
     }
 
     /**
      * Getters.
      */
-    String getTitle() {
+    public String getId() {
+        return id;
+    }
+
+    public String getTitle() {
         return title;
     }
 
-    String getAuthors() {
+    public String getAuthors() {
         return authors;
     }
 
-    String getPublisher() {
+    public String getPublisher() {
         return publisher;
     }
 
-    String getPublishedDate() {
+    public String getPublishedDate() {
         return publishedDate;
     }
 
-    int getPages() {
+    public int getPages() {
         return pages;
     }
 
-    int getStars() {
+    public int getStars() {
         return stars;
     }
 
-    String getDescription() {
+    public String getDescription() {
         return description;
     }
 
-    Bitmap getImage() {
-        return image;
+    public String getImageUrl() {
+        return imageUrl;
     }
 
-    String getUrl() {
+    public String getUrl() {
         return url;
     }
+
+    /**
+     * Two books are equal if all their fields are equal, so a book fetched again can be told apart
+     * from a book whose information has changed.
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof Book)) return false;
+        Book book = (Book) object;
+        return pages == book.pages && stars == book.stars && id.equals(book.id)
+                && title.equals(book.title) && authors.equals(book.authors)
+                && publisher.equals(book.publisher) && publishedDate.equals(book.publishedDate)
+                && description.equals(book.description) && imageUrl.equals(book.imageUrl)
+                && url.equals(book.url);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id.hashCode();
+        result = 31 * result + title.hashCode();
+        result = 31 * result + authors.hashCode();
+        result = 31 * result + stars;
+        return result;
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.util.Locale;
+
+/**
+ * Criteria of {@link BookQueryEngine} for keeping books of a list. A book is kept if it meets all
+ * the criteria that have been set; a new filter keeps every book.
+ */
+public final class BookFilter {
+    int minStars;                           // Minimum rating, or 0.
+    int minPages;                           // Minimum number of pages, or 0.
+    int maxPages = Integer.MAX_VALUE;       // Maximum number of pages.
+    int fromYear;                           // Earliest year of publication, or 0.
+    int toYear = Integer.MAX_VALUE;         // Latest year of publication.
+    String publisher = "";                  // Text contained in the publisher, in lower case.
+
+    /**
+     * Keeps the books rated with at least the given number of stars.
+     */
+    public BookFilter minStars(int stars) {
+        minStars = stars;
+        return this;
+    }
+
+    /**
+     * Keeps the books whose number of pages is in the given range. Books without a known number of
+     * pages are only kept if the range starts at 0.
+     */
+    public BookFilter pages(int min, int max) {
+        minPages = min;
+        maxPages = max;
+        return this;
+    }
+
+    /**
+     * Keeps the books published in the given range of years, both included. Books without a known
+     * publication date are only kept if the range is not set.
+     */
+    public BookFilter years(int from, int to) {
+        fromYear = from;
+        toYear = to;
+        return this;
+    }
+
+    /**
+     * Keeps the books whose publisher contains the given text, ignoring the case.
+     */
+    public BookFilter publisher(String text) {
+        publisher = text.trim().toLowerCase(Locale.ROOT);
+        return this;
+    }
+
+    /**
+     * Returns true if this filter keeps every book.
+     */
+    public boolean isEmpty() {
+        return minStars == 0 && minPages == 0 && maxPages == Integer.MAX_VALUE && fromYear == 0
+                && toYear == Integer.MAX_VALUE && publisher.isEmpty();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of lists of books, for snapshotting them to disk. Decoding a snapshot is
+ * much cheaper than parsing the JSON response it was built from.
+ */
+public final class BookListCodec {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Bytes taken by a book with empty strings: the lengths of its 8 strings and its 2 numbers.
+    private static final int MIN_BOOK_BYTES = 10 * 4;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BookListCodec}
+     * object.
+     */
+    private BookListCodec() {
+    }
+
+    /**
+     * Writes a list of books as its size followed by the fields of every book.
+     *
+     * @param output is the output where the list is written.
+     * @param books  is the list of books.
+     * @throws IOException
+     */
+    public static void write(DataOutput output, List<Book> books) throws IOException {
+        output.writeInt(books.size());
+        for (Book book : books) {
+            writeString(output, book.getId());
+            writeString(output, book.getTitle());
+            writeString(output, book.getAuthors());
+            writeString(output, book.getPublisher());
+            writeString(output, book.getPublishedDate());
+            output.writeInt(book.getPages());
+            output.writeInt(book.getStars());
+            writeString(output, book.getDescription());
+            writeString(output, book.getImageUrl());
+            writeString(output, book.getUrl());
+        }
+    }
+
+    /**
+     * Reads a list of books written by {@link #write(DataOutput, List)}. The sizes read are checked
+     * against the length of the input, so a truncated or corrupt input fails with an
+     * {@link IOException} instead of allocating whatever size it claims.
+     *
+     * @param input  is the input where the list is read from.
+     * @param length is the number of bytes of the input, at most.
+     * @return a new list of books.
+     * @throws IOException if the input can't be read, or it is not a valid list of books.
+     */
+    public static List<Book> read(DataInput input, long length) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > length / MIN_BOOK_BYTES) {
+            throw new IOException("Invalid number of books " + count);
+        }
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            books.add(new Book(readString(input, length), readString(input, length),
+                    readString(input, length), readString(input, length),
+                    readString(input, length), input.readInt(), input.readInt(),
+                    readString(input, length), readString(input, length),
+                    readString(input, length)));
+        }
+        return books;
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes. Unlike
+     * {@link DataOutput#writeUTF(String)}, this has no 64 KB limit.
+     */
+    private static void writeString(DataOutput output, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}, from an input of the
+     * given length at most.
+     */
+    private static String readString(DataInput input, long length) throws IOException {
+        int size = input.readInt();
+        if (size < 0 || size > length) throw new IOException("Invalid string length " + size);
+        byte[] bytes = new byte[size];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
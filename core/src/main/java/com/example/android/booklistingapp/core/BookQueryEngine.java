@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * In-memory query engine over a loaded list of books, which filters and sorts it without going
+ * back to the network.
+ * <p>
+ * The sort keys of every book are computed once, when the book is added with
+ * {@link #update(List)}, including the publication date parsed from the "yyyy", "yyyy-MM" or
+ * "yyyy-MM-dd" strings of the API. A query then sorts an array of primitive longs that pack the
+ * key of every book with its position, which takes a few milliseconds for thousands of books and
+ * keeps the original order among books with the same key.
+ * <p>
+ * This class is not thread-safe: it must be updated and queried from a single background thread.
+ */
+public final class BookQueryEngine {
+    private static final int UNKNOWN = Integer.MAX_VALUE;   // Key of the books without the value.
+
+    private List<Book> books = Collections.emptyList();             // Books being queried.
+    private Keys[] keys = new Keys[0];                              // Sort keys of every book.
+    private Map<Book, Keys> keysByBook = new IdentityHashMap<>();   // Keys computed so far.
+    private Map<String, Integer> publisherRanks;                    // Or null if out of date.
+
+    /**
+     * Sort and filter keys of a book.
+     */
+    private static class Keys {
+        private final int stars;            // Rating.
+        private final int pages;            // Number of pages, or 0.
+        private final int date;             // Publication date as yyyyMMdd, or 0.
+        private final String publisher;     // Publisher, in lower case.
+
+        Keys(Book book) {
+            stars = book.getStars();
+            pages = book.getPages();
+            date = parseDate(book.getPublishedDate());
+            publisher = book.getPublisher().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Replaces the list of books being queried. The keys of the books that were already in the
+     * previous list are reused.
+     *
+     * @param newBooks is the new list of books, which must not be modified afterwards.
+     */
+    public void update(List<Book> newBooks) {
+        Map<Book, Keys> newKeysByBook = new IdentityHashMap<>(newBooks.size());
+        Keys[] newKeys = new Keys[newBooks.size()];
+        for (int i = 0; i < newKeys.length; i++) {
+            Book book = newBooks.get(i);
+            Keys bookKeys = keysByBook.get(book);
+            if (bookKeys == null) bookKeys = new Keys(book);
+            newKeys[i] = bookKeys;
+            newKeysByBook.put(book, bookKeys);
+        }
+        books = newBooks;
+        keys = newKeys;
+        keysByBook = newKeysByBook;
+        publisherRanks = null;
+    }
+
+    /**
+     * Returns the books that pass the given filter, in the given order.
+     *
+     * @param filter is the filter of the books.
+     * @param order  is the order of the books.
+     * @return a new list of books.
+     */
+    public List<Book> query(BookFilter filter, SortOrder order) {
+        int count = 0;
+        long[] sorted = new long[keys.length];
+        boolean filtered = !filter.isEmpty();
+        for (int i = 0; i < keys.length; i++) {
+            if (filtered && !accept(keys[i], filter)) continue;
+            // The key goes in the high half and the position in the low half, so the positions
+            // break the ties.
+            sorted[count++] = ((long) sortKey(keys[i], order) << 32) | i;
+        }
+        if (order != SortOrder.RELEVANCE) Arrays.sort(sorted, 0, count);
+
+        List<Book> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) result.add(books.get((int) sorted[i]));
+        return result;
+    }
+
+    /**
+     * Returns true if the book with the given keys passes the filter.
+     */
+    private static boolean accept(Keys bookKeys, BookFilter filter) {
+        if (bookKeys.stars < filter.minStars) return false;
+        if (bookKeys.pages < filter.minPages || bookKeys.pages > filter.maxPages) return false;
+        int year = bookKeys.date / 10000;
+        if (year < filter.fromYear || year > filter.toYear) return false;
+        return filter.publisher.isEmpty() || bookKeys.publisher.contains(filter.publisher);
+    }
+
+    /**
+     * Returns the key of a book for the given order, lowest first. Books without the value get the
+     * highest key.
+     */
+    private int sortKey(Keys bookKeys, SortOrder order) {
+        switch (order) {
+            case RATING:
+                return -bookKeys.stars;
+            case NEWEST:
+                return bookKeys.date == 0 ? UNKNOWN : -bookKeys.date;
+            case OLDEST:
+                return bookKeys.date == 0 ? UNKNOWN : bookKeys.date;
+            case SHORTEST:
+                return bookKeys.pages == 0 ? UNKNOWN : bookKeys.pages;
+            case LONGEST:
+                return bookKeys.pages == 0 ? UNKNOWN : -bookKeys.pages;
+            case PUBLISHER:
+                if (bookKeys.publisher.isEmpty()) return UNKNOWN;
+                return getPublisherRanks().get(bookKeys.publisher);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the alphabetical rank of every publisher of the books, computed when it is first
+     * needed after an update.
+     */
+    private Map<String, Integer> getPublisherRanks() {
+        if (publisherRanks == null) {
+            TreeSet<String> publishers = new TreeSet<>();
+            for (Keys bookKeys : keys) publishers.add(bookKeys.publisher);
+            publisherRanks = new HashMap<>(publishers.size() * 2);
+            int rank = 0;
+            for (String publisher : publishers) publisherRanks.put(publisher, rank++);
+        }
+        return publisherRanks;
+    }
+
+    /**
+     * Parses a publication date of the Google Books API, which is given as "yyyy", "yyyy-MM" or
+     * "yyyy-MM-dd", into an integer that sorts like the date. Missing months and days are 0.
+     *
+     * @param date is the publication date.
+     * @return the date as yyyyMMdd, or 0 if there is no year.
+     */
+    static int parseDate(String date) {
+        int year = parseNumber(date, 0, 4);
+        if (year <= 0) return 0;
+        int month = date.length() > 4 && date.charAt(4) == '-' ? parseNumber(date, 5, 2) : 0;
+        int day = month > 0 && date.length() > 7 && date.charAt(7) == '-' ? parseNumber(date, 8, 2) : 0;
+        return year * 10000 + Math.max(month, 0) * 100 + Math.max(day, 0);
+    }
+
+    /**
+     * Parses the given number of decimal digits of a string from the given index.
+     *
+     * @return the number, or -1 if there are not enough digits.
+     */
+    private static int parseNumber(String string, int start, int digits) {
+        if (string.length() < start + digits) return -1;
+        int number = 0;
+        for (int i = start; i < start + digits; i++) {
+            char c = string.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+}
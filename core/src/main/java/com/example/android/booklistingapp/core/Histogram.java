@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A {@link Histogram} keeps the durations of the latest executions of a stage, so its percentiles
+ * can be computed. Only the latest {@link #CAPACITY} samples are kept, so memory stays bounded and
+ * the percentiles follow the recent behaviour of the app; the count and the maximum cover all the
+ * samples.
+ * <p>
+ * This class is thread-safe.
+ */
+public class Histogram {
+    static final int CAPACITY = 1024;           // Number of samples kept.
+
+    private final String name;                  // Name of the measured stage.
+    private final long[] samples;               // Ring buffer of durations, in nanoseconds.
+    private int next;                           // Index of the next sample in the ring buffer.
+    private long count;                         // Number of samples recorded since the reset.
+    private long max;                           // Longest duration since the reset.
+
+    /**
+     * Constructs a new empty {@link Histogram}.
+     *
+     * @param name is the name of the measured stage.
+     */
+    Histogram(String name) {
+        this.name = name;
+        samples = new long[CAPACITY];
+    }
+
+    /**
+     * Records a new duration.
+     *
+     * @param nanos is the duration, in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % CAPACITY;
+        count++;
+        if (nanos > max) max = nanos;
+    }
+
+    /**
+     * Removes all the samples.
+     */
+    public synchronized void reset() {
+        next = 0;
+        count = 0;
+        max = 0;
+    }
+
+    /**
+     * Returns the statistics of the samples recorded so far.
+     */
+    public Snapshot snapshot() {
+        long[] sorted;
+        long total;
+        long maximum;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, (int) Math.min(count, CAPACITY));
+            total = count;
+            maximum = max;
+        }
+        Arrays.sort(sorted);
+        return new Snapshot(name, total, sorted, maximum);
+    }
+
+    /**
+     * Statistics of a {@link Histogram} at a given moment. All durations are in nanoseconds.
+     */
+    public static class Snapshot {
+        private final String name;
+        private final long count;
+        private final long mean;
+        private final long p50;
+        private final long p95;
+        private final long p99;
+        private final long max;
+
+        Snapshot(String name, long count, long[] sorted, long max) {
+            this.name = name;
+            this.count = count;
+            long sum = 0;
+            for (long sample : sorted) sum += sample;
+            mean = sorted.length == 0 ? 0 : sum / sorted.length;
+            p50 = percentile(sorted, 50);
+            p95 = percentile(sorted, 95);
+            p99 = percentile(sorted, 99);
+            this.max = max;
+        }
+
+        /**
+         * Returns the given percentile of the sorted samples, by the nearest-rank method.
+         */
+        private static long percentile(long[] sorted, int percentile) {
+            if (sorted.length == 0) return 0;
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+
+        /**
+         * Getters.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP95() {
+            return p95;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the statistics as a single-line JSON object, with durations in milliseconds, for
+         * structured logs that can be collected and compared across releases.
+         */
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"stage\":\"%s\",\"count\":%d,\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p95Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                    name, count, millis(mean), millis(p50), millis(p95), millis(p99), millis(max));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-19s n=%-5d p50=%8.2f p95=%8.2f p99=%8.2f max=%8.2f ms",
+                    name, count, millis(p50), millis(p95), millis(p99), millis(max));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
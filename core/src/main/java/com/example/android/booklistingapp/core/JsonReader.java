@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Pull parser for JSON documents, with the same API as the {@code JsonReader} of the Android
+ * framework, which is not available to this module.
+ * <p>
+ * The document is read through a fixed buffer, one token at a time, so it is never held in
+ * memory as a whole, and the values that are skipped are not materialized as strings. Malformed
+ * documents fail with an {@link IOException}; calls that don't match the next token fail with an
+ * {@link IllegalStateException}, and numbers that don't fit the requested type with a
+ * {@link NumberFormatException}.
+ */
+final class JsonReader {
+    private static final Pattern NUMBER = Pattern.compile("-?(?:0|[1-9][0-9]*)(?:\\.[0-9]+)?(?:[eE][-+]?[0-9]+)?");
+
+    // Scopes of the values being read, kept in a stack.
+    private static final int EMPTY_DOCUMENT = 0;        // Before the top-level value.
+    private static final int NONEMPTY_DOCUMENT = 1;     // After the top-level value.
+    private static final int EMPTY_ARRAY = 2;           // Before the first element of an array.
+    private static final int NONEMPTY_ARRAY = 3;        // After an element of an array.
+    private static final int EMPTY_OBJECT = 4;          // Before the first name of an object.
+    private static final int DANGLING_NAME = 5;         // After a name, before its value.
+    private static final int NONEMPTY_OBJECT = 6;       // After a value of an object.
+
+    private final Reader in;                        // Source of the document.
+    private final char[] buffer = new char[8192];   // Characters read and not consumed yet.
+    private int pos;                                // Position of the next character in the buffer.
+    private int limit;                              // End of the characters in the buffer.
+    private long consumed;                          // Characters discarded from the buffer.
+    private int[] stack = new int[32];              // Scopes of the values being read.
+    private int stackSize = 1;                      // Number of scopes in the stack.
+    private JsonToken peeked;                       // Next token, or null if not peeked yet.
+
+    /**
+     * Constructs a new {@link JsonReader}. The reader is not closed.
+     *
+     * @param in is the source of the JSON document.
+     */
+    JsonReader(Reader in) {
+        this.in = in;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns the kind of the next token, without consuming it.
+     *
+     * @return the kind of the next token.
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    JsonToken peek() throws IOException {
+        if (peeked == null) peeked = doPeek();
+        return peeked;
+    }
+
+    /**
+     * Returns true if the current array or object has another element.
+     *
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    /**
+     * Consumes the beginning of an array.
+     *
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the end of the current array.
+     *
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the beginning of an object.
+     *
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Consumes the end of the current object.
+     *
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the next name of the current object.
+     *
+     * @return the name.
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        return readString();
+    }
+
+    /**
+     * Consumes the next value, which must be a string or a number.
+     *
+     * @return the string, or the text of the number.
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    String nextString() throws IOException {
+        JsonToken token = peek();
+        if (token == JsonToken.NUMBER) {
+            peeked = null;
+            return readNumber();
+        }
+        expect(JsonToken.STRING);
+        return readString();
+    }
+
+    /**
+     * Consumes the next value, which must be a number, or a string with a number, without a
+     * fractional part.
+     *
+     * @return the number.
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    int nextInt() throws IOException {
+        String text = nextNumberText();
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            double value = Double.parseDouble(text);
+            if ((int) value != value) throw new NumberFormatException("Not an int: " + text);
+            return (int) value;
+        }
+    }
+
+    /**
+     * Consumes the next value, which must be a number, or a string with a number.
+     *
+     * @return the number.
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    double nextDouble() throws IOException {
+        return Double.parseDouble(nextNumberText());
+    }
+
+    /**
+     * Consumes the next value, with all its nested values if it is an array or an object.
+     *
+     * @throws IOException if the document can't be read or is malformed.
+     */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            JsonToken token = peek();
+            peeked = null;
+            switch (token) {
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    depth++;
+                    break;
+                case END_ARRAY:
+                case END_OBJECT:
+                    if (depth == 0) throw new IllegalStateException("Expected a value but was " + token);
+                    stackSize--;
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    break;
+                case NUMBER:
+                    readNumber();
+                    break;
+                case BOOLEAN:
+                case NULL:
+                    readLiteral(token);
+                    break;
+                case END_DOCUMENT:
+                    throw new IllegalStateException("Expected a value but was " + token);
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Consumes the next token, which must be of the given kind.
+     */
+    private void expect(JsonToken expected) throws IOException {
+        JsonToken token = peek();
+        if (token != expected) throw new IllegalStateException("Expected " + expected + " but was " + token);
+        peeked = null;
+    }
+
+    /**
+     * Consumes the next value, which must be a number or a string, and returns its text.
+     */
+    private String nextNumberText() throws IOException {
+        JsonToken token = peek();
+        if (token == JsonToken.STRING) {
+            peeked = null;
+            return readString().trim();
+        }
+        expect(JsonToken.NUMBER);
+        return readNumber();
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+        stack[stackSize++] = scope;
+    }
+
+    /**
+     * Reads the punctuation that comes before the next token, and finds out its kind. The
+     * brackets and the opening quote of strings are consumed; numbers and literals are not.
+     */
+    private JsonToken doPeek() throws IOException {
+        int scope = stack[stackSize - 1];
+        if (scope == EMPTY_ARRAY || scope == NONEMPTY_ARRAY) {
+            stack[stackSize - 1] = NONEMPTY_ARRAY;
+            int c = nextNonWhitespace();
+            if (c == ']') return JsonToken.END_ARRAY;
+            if (scope == NONEMPTY_ARRAY) {
+                if (c != ',') throw syntaxError("Expected ',' or ']'");
+            } else {
+                pos--;
+            }
+        } else if (scope == EMPTY_OBJECT || scope == NONEMPTY_OBJECT) {
+            stack[stackSize - 1] = DANGLING_NAME;
+            int c = nextNonWhitespace();
+            if (c == '}') return JsonToken.END_OBJECT;
+            if (scope == NONEMPTY_OBJECT) {
+                if (c != ',') throw syntaxError("Expected ',' or '}'");
+                c = nextNonWhitespace();
+            }
+            if (c != '"') throw syntaxError("Expected a name");
+            return JsonToken.NAME;
+        } else if (scope == DANGLING_NAME) {
+            stack[stackSize - 1] = NONEMPTY_OBJECT;
+            if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+        } else if (scope == EMPTY_DOCUMENT) {
+            stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+        } else {
+            if (skipWhitespace()) throw syntaxError("Expected the end of the document");
+            return JsonToken.END_DOCUMENT;
+        }
+
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '[':
+                return JsonToken.BEGIN_ARRAY;
+            case '{':
+                return JsonToken.BEGIN_OBJECT;
+            case '"':
+                return JsonToken.STRING;
+            case 't':
+            case 'f':
+                pos--;
+                return JsonToken.BOOLEAN;
+            case 'n':
+                pos--;
+                return JsonToken.NULL;
+            default:
+                if (c != '-' && (c < '0' || c > '9')) throw syntaxError("Expected a value");
+                pos--;
+                return JsonToken.NUMBER;
+        }
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote has been consumed, unescaping it.
+     */
+    private String readString() throws IOException {
+        StringBuilder builder = null;
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    // Strings without escapes that fit in the buffer are copied just once.
+                    if (builder == null) return new String(buffer, start, pos - start - 1);
+                    builder.append(buffer, start, pos - start - 1);
+                    return builder.toString();
+                } else if (c == '\\') {
+                    if (builder == null) builder = new StringBuilder(Math.max(16, 2 * (pos - start)));
+                    builder.append(buffer, start, pos - start - 1);
+                    builder.append(readEscape());
+                    start = pos;
+                }
+            }
+            if (builder == null) builder = new StringBuilder(Math.max(16, 2 * (pos - start)));
+            builder.append(buffer, start, pos - start);
+            if (!fill(1)) throw syntaxError("Unterminated string");
+        }
+    }
+
+    /**
+     * Skips the rest of a string whose opening quote has been consumed.
+     */
+    private void skipString() throws IOException {
+        while (true) {
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') return;
+                if (c == '\\') readEscape();
+            }
+            if (!fill(1)) throw syntaxError("Unterminated string");
+        }
+    }
+
+    /**
+     * Reads the rest of an escape sequence whose backslash has been consumed.
+     */
+    private char readEscape() throws IOException {
+        if (pos == limit && !fill(1)) throw syntaxError("Unterminated escape sequence");
+        char c = buffer[pos++];
+        switch (c) {
+            case 'u':
+                if (limit - pos < 4 && !fill(4)) throw syntaxError("Unterminated escape sequence");
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(buffer[pos++], 16);
+                    if (digit < 0) throw syntaxError("Invalid escape sequence");
+                    value = (value << 4) + digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    /**
+     * Reads a number, which has not been consumed yet, and returns its text.
+     */
+    private String readNumber() throws IOException {
+        String text = readUnquoted();
+        if (!NUMBER.matcher(text).matches()) throw syntaxError("Invalid number " + text);
+        return text;
+    }
+
+    /**
+     * Reads a literal of the given kind, which has not been consumed yet.
+     */
+    private void readLiteral(JsonToken token) throws IOException {
+        String text = readUnquoted();
+        boolean valid = token == JsonToken.NULL ? text.equals("null") : text.equals("true") || text.equals("false");
+        if (!valid) throw syntaxError("Invalid literal " + text);
+    }
+
+    /**
+     * Reads the characters of a number or a literal, up to the next delimiter.
+     */
+    private String readUnquoted() throws IOException {
+        StringBuilder builder = null;
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == ',' || c == ']' || c == '}' || c == ':' || isWhitespace(c)) {
+                    if (builder == null) return new String(buffer, start, pos - start);
+                    return builder.append(buffer, start, pos - start).toString();
+                }
+                pos++;
+            }
+            if (builder == null) builder = new StringBuilder();
+            builder.append(buffer, start, pos - start);
+            if (!fill(1)) return builder.toString();
+        }
+    }
+
+    /**
+     * Consumes the whitespace, and returns the next character, consumed too.
+     */
+    private int nextNonWhitespace() throws IOException {
+        if (!skipWhitespace()) throw syntaxError("Unexpected end of the document");
+        return buffer[pos++];
+    }
+
+    /**
+     * Consumes the whitespace, and returns true if there is a character after it.
+     */
+    private boolean skipWhitespace() throws IOException {
+        while (pos < limit || fill(1)) {
+            if (!isWhitespace(buffer[pos])) return true;
+            pos++;
+        }
+        return false;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    /**
+     * Reads from the source until the buffer holds the given number of characters not consumed
+     * yet, moving them to its beginning. The positions in the buffer are not valid afterwards.
+     *
+     * @return false if the source ends before.
+     */
+    private boolean fill(int minimum) throws IOException {
+        consumed += pos;
+        limit -= pos;
+        System.arraycopy(buffer, pos, buffer, 0, limit);
+        pos = 0;
+        while (limit < minimum) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read == -1) return false;
+            limit += read;
+        }
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at character " + (consumed + pos));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the latency {@link Histogram}s of the stages of the search pipeline, from the HTTP
+ * connection to the binding of the rows of the list.
+ * <p>
+ * Stages are timed with {@link #now()} and {@link #record(String, long)}, which don't allocate, so
+ * they can be used in hot paths:
+ * <pre>
+ *     long start = Metrics.now();
+ *     ...
+ *     Metrics.getInstance().record(Metrics.STAGE_PARSE, start);
+ * </pre>
+ * This class is thread-safe.
+ */
+public final class Metrics {
+    // Stages of a search.
+    public static final String STAGE_SEARCH = "search";             // Whole request and parsing.
+    public static final String STAGE_CONNECT = "http.connect";      // Connection, or reuse.
+    public static final String STAGE_FIRST_BYTE = "http.firstByte"; // Connection to response code.
+    public static final String STAGE_DOWNLOAD = "http.download";    // Reading the response body.
+    public static final String STAGE_CACHE_READ = "cache.read";     // Reading a cached body.
+    public static final String STAGE_PARSE = "json.parse";          // Parsing, without reading.
+    public static final String STAGE_INDEX_SEARCH = "index.search"; // Search of the stored books.
+
+    // Stages of the display of the results.
+    public static final String STAGE_COVER_FETCH = "cover.fetch";   // Download of a cover.
+    public static final String STAGE_COVER_DECODE = "cover.decode"; // Decoding of a cover.
+    public static final String STAGE_BIND = "list.bind";            // Binding of a row.
+
+    // Smoothness of the list, measured in debug and internal builds.
+    public static final String STAGE_FRAME = "ui.frame";                    // Time between frames.
+    public static final String STAGE_JANKY_FRAME = "ui.frame.janky";        // Frames that missed vsync.
+    public static final String STAGE_SCROLL_BIND = "list.bind.scrolling";   // Binds while scrolling.
+    public static final String STAGE_SLOW_BIND = "list.bind.slow";          // Binds over half a frame.
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new {@link Metrics}. Use {@link #getInstance()} instead.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Returns the registry shared by all the components of the app.
+     */
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the current time, for measuring the duration of a stage.
+     *
+     * @return the current value of a monotonic clock, in nanoseconds.
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of a stage that started at the given time and ends now.
+     *
+     * @param stage      is the name of the stage.
+     * @param startNanos is the time returned by {@link #now()} when the stage started.
+     */
+    public void record(String stage, long startNanos) {
+        recordNanos(stage, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records the duration of a stage.
+     *
+     * @param stage is the name of the stage.
+     * @param nanos is the duration, in nanoseconds.
+     */
+    public void recordNanos(String stage, long nanos) {
+        histogram(stage).record(nanos);
+    }
+
+    /**
+     * Returns the histogram of the given stage, creating it if needed.
+     *
+     * @param stage is the name of the stage.
+     * @return the histogram.
+     */
+    public Histogram histogram(String stage) {
+        Histogram histogram = histograms.get(stage);
+        if (histogram == null) {
+            Histogram created = new Histogram(stage);
+            histogram = histograms.putIfAbsent(stage, created);
+            if (histogram == null) histogram = created;
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the statistics of all the stages measured so far, sorted by name.
+     */
+    public List<Histogram.Snapshot> snapshots() {
+        Map<String, Histogram> sorted = new TreeMap<>(histograms);
+        List<Histogram.Snapshot> snapshots = new ArrayList<>(sorted.size());
+        for (Histogram histogram : sorted.values()) snapshots.add(histogram.snapshot());
+        return Collections.unmodifiableList(snapshots);
+    }
+
+    /**
+     * Removes the samples of all the stages.
+     */
+    public void reset() {
+        for (Histogram histogram : histograms.values()) histogram.reset();
+    }
+}
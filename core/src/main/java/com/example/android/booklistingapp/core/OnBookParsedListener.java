@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+/**
+ * Interface definition for a callback to be invoked every time a {@link Book} is parsed from a
+ * response, so books can be handed out one at a time while the response is still being read.
+ */
+public interface OnBookParsedListener {
+    /**
+     * Called on the thread that parses the response when a new book has been parsed. Throwing an
+     * unchecked exception from this method stops the parsing.
+     *
+     * @param book is the parsed book.
+     */
+    void onBookParsed(Book book);
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+/**
+ * Orders in which {@link BookQueryEngine} can sort a list of books. Books without the value of the
+ * sort key always go last.
+ */
+public enum SortOrder {
+    RELEVANCE,      // As returned by the Google Books API.
+    RATING,         // Highest rating first.
+    NEWEST,         // Latest publication date first.
+    OLDEST,         // Earliest publication date first.
+    SHORTEST,       // Fewest pages first.
+    LONGEST,        // Most pages first.
+    PUBLISHER       // Publisher in alphabetical order.
+}
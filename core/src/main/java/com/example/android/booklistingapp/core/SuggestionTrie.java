@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Immutable prefix trie of ranked search suggestions, such as past queries and the titles and
+ * authors of the books seen before, which answers autocomplete lookups in microseconds without
+ * touching the network.
+ * <p>
+ * Terms are matched by prefix, ignoring the case and the extra whitespace. Terms are numbered by
+ * rank, best first, and every node keeps the best rank of its subtree, so the best suggestions for
+ * a prefix are found by a best-first walk that only visits the nodes leading to them. Nodes are
+ * laid out breadth-first in flat arrays, about 14 bytes each, so the children of a node are
+ * contiguous and found by binary search.
+ * <p>
+ * Build it with a {@link Builder}. This class is thread-safe.
+ */
+public final class SuggestionTrie {
+    private final String[] terms;           // Suggested terms, by rank.
+    private final char[] labels;            // Character leading to every node.
+    private final int[] firstChild;         // Index of the first child of every node, and a sentinel.
+    private final int[] terminal;           // Rank of the term ending at every node, or -1.
+    private final int[] best;               // Best rank in the subtree of every node.
+
+    /**
+     * Collects the terms of a {@link SuggestionTrie}. A term added several times, in any case,
+     * adds up its weights and keeps the text of its heaviest addition.
+     */
+    public static final class Builder {
+        private final Map<String, String> texts = new HashMap<>();     // Text, by key.
+        private final Map<String, Long> weights = new HashMap<>();     // Weight, by key.
+        private final Map<String, Integer> heaviest = new HashMap<>(); // Weight of the text.
+
+        /**
+         * Adds a term.
+         *
+         * @param term   is the suggested text.
+         * @param weight is the weight of the term; heavier terms are suggested first.
+         * @return this builder.
+         */
+        public Builder add(String term, int weight) {
+            String key = normalize(term.trim());
+            if (key.isEmpty()) return this;
+            Long total = weights.get(key);
+            weights.put(key, total == null ? weight : total + weight);
+            Integer textWeight = heaviest.get(key);
+            if (textWeight == null || weight > textWeight) {
+                texts.put(key, term.trim());
+                heaviest.put(key, weight);
+            }
+            return this;
+        }
+
+        /**
+         * Returns a new trie with the terms added so far.
+         */
+        public SuggestionTrie build() {
+            // Rank the terms by weight, and alphabetically when tied.
+            List<String> keys = new ArrayList<>(weights.keySet());
+            Collections.sort(keys, new Comparator<String>() {
+                @Override
+                public int compare(String key1, String key2) {
+                    int byWeight = weights.get(key2).compareTo(weights.get(key1));
+                    return byWeight != 0 ? byWeight : key1.compareTo(key2);
+                }
+            });
+            String[] terms = new String[keys.size()];
+            BuildNode root = new BuildNode();
+            int nodes = 1;
+            for (int rank = 0; rank < keys.size(); rank++) {
+                String key = keys.get(rank);
+                terms[rank] = texts.get(key);
+                BuildNode node = root;
+                for (int i = 0; i < key.length(); i++) {
+                    BuildNode child = node.children.get(key.charAt(i));
+                    if (child == null) {
+                        child = new BuildNode();
+                        node.children.put(key.charAt(i), child);
+                        nodes++;
+                    }
+                    node = child;
+                }
+                node.terminal = rank;
+            }
+            return new SuggestionTrie(terms, root, nodes);
+        }
+    }
+
+    /**
+     * Node of the trie while it is being built.
+     */
+    private static final class BuildNode {
+        final TreeMap<Character, BuildNode> children = new TreeMap<>();
+        int terminal = -1;
+    }
+
+    /**
+     * Lays out the built nodes breadth-first in flat arrays.
+     */
+    private SuggestionTrie(String[] terms, BuildNode root, int nodes) {
+        this.terms = terms;
+        labels = new char[nodes];
+        firstChild = new int[nodes + 1];
+        terminal = new int[nodes];
+        best = new int[nodes];
+
+        BuildNode[] order = new BuildNode[nodes];
+        order[0] = root;
+        int next = 1;
+        for (int i = 0; i < nodes; i++) {
+            BuildNode node = order[i];
+            terminal[i] = node.terminal;
+            firstChild[i] = next;
+            for (Map.Entry<Character, BuildNode> entry : node.children.entrySet()) {
+                labels[next] = entry.getKey();
+                order[next++] = entry.getValue();
+            }
+        }
+        firstChild[nodes] = next;
+
+        // Children come after their parents, so the best ranks are computed backwards.
+        for (int i = nodes - 1; i >= 0; i--) {
+            int rank = terminal[i] >= 0 ? terminal[i] : Integer.MAX_VALUE;
+            for (int child = firstChild[i]; child < firstChild[i + 1]; child++) {
+                rank = Math.min(rank, best[child]);
+            }
+            best[i] = rank;
+        }
+    }
+
+    /**
+     * Returns an empty trie.
+     */
+    public static SuggestionTrie empty() {
+        return new Builder().build();
+    }
+
+    /**
+     * Returns the number of terms of the trie.
+     */
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * Returns the best terms starting with the given prefix, ignoring the case and the extra
+     * whitespace.
+     *
+     * @param prefix is the text typed so far.
+     * @param limit  is the maximum number of terms.
+     * @return a new list with the terms, best first.
+     */
+    public List<String> suggest(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit <= 0) return new ArrayList<>();
+
+        // Find the node of the prefix.
+        int node = 0;
+        for (int i = 0; i < key.length() && node >= 0; i++) {
+            node = findChild(node, key.charAt(i));
+        }
+        if (node < 0) return new ArrayList<>();
+
+        // Walk best-first: entries are ordered by rank, and a node is expanded into its own term
+        // and its children, whose ranks are never better than its own.
+        List<String> suggestions = new ArrayList<>(Math.min(limit, 16));
+        PriorityQueue<Long> queue = new PriorityQueue<>();
+        queue.add(entry(best[node], node, false));
+        while (!queue.isEmpty() && suggestions.size() < limit) {
+            long entry = queue.poll();
+            int rank = (int) (entry >>> 32);
+            int index = (int) entry >>> 1;
+            if ((entry & 1) != 0) {
+                suggestions.add(terms[rank]);
+                continue;
+            }
+            if (terminal[index] >= 0) queue.add(entry(terminal[index], index, true));
+            for (int child = firstChild[index]; child < firstChild[index + 1]; child++) {
+                queue.add(entry(best[child], child, false));
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * Packs an entry of the best-first walk, ordered by rank.
+     */
+    private static long entry(int rank, int node, boolean isTerm) {
+        return ((long) rank << 32) | ((long) node << 1) | (isTerm ? 1 : 0);
+    }
+
+    /**
+     * Returns the child of a node leading through the given character, or -1.
+     */
+    private int findChild(int node, char c) {
+        int low = firstChild[node];
+        int high = firstChild[node + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (labels[middle] < c) low = middle + 1;
+            else if (labels[middle] > c) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * Normalizes a term or a prefix for matching: lower case and single spaces, without leading
+     * whitespace. Trailing whitespace is kept, so a prefix can end with a complete word.
+     */
+    static String normalize(String text) {
+        String key = text.replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return key.startsWith(" ") ? key.substring(1) : key;
+    }
+}
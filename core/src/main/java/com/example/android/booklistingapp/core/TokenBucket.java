@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link TokenBucket} limits the rate of the requests to an API, so a burst of work does not
+ * exhaust its quota. The bucket holds up to a number of tokens, which are refilled at a steady
+ * rate; every request takes a token, waiting for one to be refilled if the bucket is empty. So
+ * short bursts go through at once, while the long-term rate never exceeds the refill rate.
+ * <p>
+ * Tokens are reserved in order, so waiting threads are served first come, first served. This
+ * class is thread-safe.
+ */
+public class TokenBucket {
+    private final long nanosPerToken;           // Time for refilling a token.
+    private final long burstNanos;              // Time for refilling the whole bucket.
+    private long refilledNanos;                  // Time at which the bucket will be full again.
+
+    /**
+     * Constructs a new full {@link TokenBucket}.
+     *
+     * @param tokensPerSecond is the refill rate, which is the maximum long-term rate of requests.
+     * @param capacity        is the number of tokens of the bucket, which is the maximum burst.
+     */
+    public TokenBucket(double tokensPerSecond, int capacity) {
+        this(tokensPerSecond, capacity, System.nanoTime());
+    }
+
+    /**
+     * Constructs a new full {@link TokenBucket}, at the given time.
+     */
+    TokenBucket(double tokensPerSecond, int capacity, long nowNanos) {
+        if (tokensPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Invalid rate " + tokensPerSecond + " or capacity " + capacity);
+        }
+        nanosPerToken = (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond);
+        burstNanos = nanosPerToken * capacity;
+        refilledNanos = nowNanos;
+    }
+
+    /**
+     * Takes a token, waiting until one is available.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting; the token is lost.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve(System.nanoTime());
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    /**
+     * Reserves the next token, at the given time.
+     *
+     * @param nowNanos is the current time, in nanoseconds.
+     * @return the time to wait until the token is available, in nanoseconds, or 0.
+     */
+    synchronized long reserve(long nowNanos) {
+        // A bucket that has been idle is full, but it can't hold more than its capacity.
+        refilledNanos = Math.max(refilledNanos, nowNanos) + nanosPerToken;
+        return Math.max(0, refilledNanos - nowNanos - burstNanos);
+    }
+}
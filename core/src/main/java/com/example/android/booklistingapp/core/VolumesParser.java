@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming parser for the responses of the volumes endpoint of the Google Books API, built on
+ * the {@link JsonReader} pull parser of this module.
+ */
+public final class VolumesParser {
+    // Names of the fields of the volumes response outside "volumeInfo" read by the parser.
+    private static final String ITEMS = "items";
+    private static final String ID = "id";
+    private static final String VOLUME_INFO = "volumeInfo";
+    private static final String SMALL_THUMBNAIL = "smallThumbnail";
+
+    /**
+     * Fields of the "volumeInfo" object read by the parser. The partial-response projection
+     * requested to the API is built from this enum, so the request and the parser can't drift
+     * apart: a field needs a constant here for being parsed, and every constant is requested.
+     */
+    private enum VolumeField {
+        TITLE("title", null),
+        AUTHORS("authors", null),
+        PUBLISHER("publisher", null),
+        PUBLISHED_DATE("publishedDate", null),
+        PAGE_COUNT("pageCount", null),
+        AVERAGE_RATING("averageRating", null),
+        DESCRIPTION("description", null),
+        IMAGE_LINKS("imageLinks", SMALL_THUMBNAIL),
+        CANONICAL_VOLUME_LINK("canonicalVolumeLink", null);
+
+        private static final Map<String, VolumeField> BY_NAME = new HashMap<>();
+
+        static {
+            for (VolumeField field : values()) BY_NAME.put(field.jsonName, field);
+        }
+
+        private final String jsonName;      // Name of the field in the JSON response.
+        private final String subField;      // Only sub-field requested for objects, or null.
+
+        VolumeField(String jsonName, String subField) {
+            this.jsonName = jsonName;
+            this.subField = subField;
+        }
+
+        /**
+         * Returns the field with the given name in the JSON response, or null if it is not read.
+         */
+        static VolumeField forName(String name) {
+            return BY_NAME.get(name);
+        }
+    }
+
+    // Partial-response projection for the "fields" parameter of the request, so the API only
+    // sends the fields that are read by the parser.
+    static final String FIELDS_PROJECTION;
+
+    static {
+        StringBuilder volumeInfoFields = new StringBuilder();
+        for (VolumeField field : VolumeField.values()) {
+            if (volumeInfoFields.length() > 0) volumeInfoFields.append(',');
+            volumeInfoFields.append(field.jsonName);
+            if (field.subField != null) volumeInfoFields.append('/').append(field.subField);
+        }
+        FIELDS_PROJECTION = ITEMS + "(" + ID + "," + VOLUME_INFO + "(" + volumeInfoFields + "))";
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link VolumesParser}
+     * object.
+     */
+    private VolumesParser() {
+    }
+
+    /**
+     * Parse the given JSON response with a pull parser, handing out every {@link Book} object to
+     * the given listener as soon as it is complete. Only the "items[].volumeInfo" objects are read;
+     * every other field is skipped without being materialized. The stream is not closed.
+     *
+     * @param inputStream is the stream with the JSON response.
+     * @param listener    is the listener that receives the parsed books.
+     * @throws IOException if the stream can't be read or the response is malformed.
+     */
+    public static void parse(InputStream inputStream, OnBookParsedListener listener) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                // Extract the array associated with the key called "items", which represents a
+                // list of items (or books). Skip everything else.
+                if (reader.nextName().equals(ITEMS) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Book book = readItem(reader);
+                        if (book != null) listener.onBookParsed(book);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // The response is well-formed JSON, but not the expected one.
+            throw new IOException("Unexpected volumes response", e);
+        }
+    }
+
+    /**
+     * Read a single item of the "items" array.
+     *
+     * @param reader is the JSON reader, positioned at the beginning of the item.
+     * @return a new {@link Book} object, or null if the item has no "volumeInfo" object.
+     * @throws IOException
+     */
+    private static Book readItem(JsonReader reader) throws IOException {
+        String id = "";
+        Book book = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(ID) && reader.peek() == JsonToken.STRING) {
+                // Extract the value for the key called "id", which identifies the volume. Google
+                // Books always sends it before "volumeInfo".
+                id = reader.nextString();
+            } else if (name.equals(VOLUME_INFO) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                // For a given item, extract the object associated with the key called
+                // "volumeInfo", which represents a list of all properties for that book.
+                book = readVolumeInfo(reader, id);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return book;
+    }
+
+    /**
+     * Read the "volumeInfo" object of an item and create a {@link Book} object with the fields
+     * that are displayed by the app.
+     *
+     * @param reader is the JSON reader, positioned at the beginning of the "volumeInfo" object.
+     * @param id     is the unique identifier of the volume.
+     * @return a new {@link Book} object.
+     * @throws IOException
+     */
+    private static Book readVolumeInfo(JsonReader reader, String id) throws IOException {
+        String title = "";
+        String authors = "";
+        String publisher = "";
+        String publishedDate = "";
+        int pageCount = 0;
+        int averageRating = 0;
+        String description = "";
+        String smallThumbnail = "";
+        String canonicalVolumeLink = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            VolumeField field = VolumeField.forName(reader.nextName());
+            if (field == null || reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (field) {
+                case TITLE:
+                    title = reader.nextString();
+                    break;
+                case AUTHORS:
+                    // Join the list of authors of the book, comma separated.
+                    StringBuilder authorsBuilder = new StringBuilder();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (authorsBuilder.length() > 0) authorsBuilder.append(", ");
+                        authorsBuilder.append(reader.nextString());
+                    }
+                    reader.endArray();
+                    authors = authorsBuilder.toString();
+                    break;
+                case PUBLISHER:
+                    publisher = reader.nextString();
+                    break;
+                case PUBLISHED_DATE:
+                    publishedDate = reader.nextString();
+                    break;
+                case PAGE_COUNT:
+                    pageCount = reader.nextInt();
+                    break;
+                case AVERAGE_RATING:
+                    // The rating can have decimals, but only whole stars are displayed.
+                    averageRating = (int) reader.nextDouble();
+                    break;
+                case DESCRIPTION:
+                    description = reader.nextString();
+                    break;
+                case IMAGE_LINKS:
+                    // Extract the value for the key called "smallThumbnail", which represents the
+                    // link to the small image of the cover of the book. The image itself is not
+                    // downloaded here.
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals(SMALL_THUMBNAIL) && reader.peek() == JsonToken.STRING) {
+                            smallThumbnail = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case CANONICAL_VOLUME_LINK:
+                    canonicalVolumeLink = reader.nextString();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        // Create a new {@link Book} object with the data retrieved from the JSON response.
+        return new Book(id, title, authors, publisher, publishedDate, pageCount, averageRating, description, smallThumbnail, canonicalVolumeLink);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Locale;
+
+/**
+ * Helper methods for building the requests to the volumes endpoint of the Google Books API.
+ */
+public final class VolumesQuery {
+    // Maximum number of results of a single request.
+    public static final int MAX_RESULTS = 40;
+
+    // Url of the volumes endpoint.
+    private static final String BASE_URL = "https://www.googleapis.com/books/v1/volumes";
+
+    /**
+     * Create a private constructor because no one should ever create a {@link VolumesQuery} object.
+     */
+    private VolumesQuery() {
+    }
+
+    /**
+     * Returns the url for searching books, one page at a time. Only the fields that are read by
+     * {@link VolumesParser} are requested, so the response is as small as possible.
+     *
+     * @param query      is the search string.
+     * @param startIndex is the index of the first result of the page.
+     * @param maxResults is the number of results of the page (maximum {@link #MAX_RESULTS}).
+     * @return the url of the request.
+     */
+    public static String buildUrl(String query, int startIndex, int maxResults) {
+        return buildUrl(BASE_URL, query, startIndex, maxResults);
+    }
+
+    /**
+     * Returns the url for searching books on the given endpoint, for example a local stand-in for
+     * the Google Books API.
+     *
+     * @param endpoint   is the url of the volumes endpoint.
+     * @param query      is the search string.
+     * @param startIndex is the index of the first result of the page.
+     * @param maxResults is the number of results of the page (maximum {@link #MAX_RESULTS}).
+     * @return the url of the request.
+     */
+    public static String buildUrl(String endpoint, String query, int startIndex, int maxResults) {
+        return endpoint + "?q=" + encode(normalize(query)) + "&startIndex=" + startIndex
+                + "&maxResults=" + maxResults + "&fields=" + encode(VolumesParser.FIELDS_PROJECTION);
+    }
+
+    /**
+     * Returns the url for resolving a single entry of a list of books into its best match. Entries
+     * that are ISBN-10 or ISBN-13 numbers, with or without hyphens and spaces, are looked up by
+     * ISBN; anything else is searched as a title.
+     *
+     * @param entry is an ISBN or a title.
+     * @return the url of the request.
+     */
+    public static String buildLookupUrl(String entry) {
+        String isbn = toIsbn(entry);
+        return buildUrl(isbn != null ? "isbn:" + isbn : entry, 0, 1);
+    }
+
+    /**
+     * Returns the digits of the given entry if it is a well-formed ISBN-10 or ISBN-13 number.
+     *
+     * @param entry is an ISBN or a title.
+     * @return the ISBN without separators, or null if the entry is not an ISBN.
+     */
+    static String toIsbn(String entry) {
+        String isbn = entry.replaceAll("[\\s-]", "").toUpperCase(Locale.ROOT);
+        if (isbn.matches("\\d{13}")) {
+            int sum = 0;
+            for (int i = 0; i < 13; i++) sum += (isbn.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+            return sum % 10 == 0 ? isbn : null;
+        }
+        if (isbn.matches("\\d{9}[\\dX]")) {
+            int sum = 0;
+            for (int i = 0; i < 10; i++) {
+                char c = isbn.charAt(i);
+                sum += (c == 'X' ? 10 : c - '0') * (10 - i);
+            }
+            return sum % 11 == 0 ? isbn : null;
+        }
+        return null;
+    }
+
+    /**
+     * Normalizes a search string, so the same search typed differently has the same url and
+     * shares its cached responses and its requests in flight. The search of the Google Books API
+     * ignores the case and the extra whitespace.
+     */
+    private static String normalize(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Encodes a value for a query parameter of an url.
+     */
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported.
+            throw new AssertionError(e);
+        }
+    }
+}
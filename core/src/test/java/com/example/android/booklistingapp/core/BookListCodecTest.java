@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the encoding of {@link BookListCodec}, and of its handling of corrupt snapshots.
+ */
+public class BookListCodecTest {
+    private static final List<Book> BOOKS = Arrays.asList(
+            new Book("id1", "Title", "Author One, Author Two", "Publisher", "2016-01-01", 320, 4,
+                    "Descripci\u00f3n con acentos", "http://example.com/1.jpg", "http://example.com/1"),
+            new Book("", "", "", "", "", 0, 0, "", "", ""));
+
+    @Test
+    public void readsWhatItWrites() throws IOException {
+        byte[] bytes = encode(BOOKS);
+        assertEquals(BOOKS, decode(bytes));
+        assertEquals(Collections.<Book>emptyList(), decode(encode(Collections.<Book>emptyList())));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATruncatedSnapshot() throws IOException {
+        byte[] bytes = encode(BOOKS);
+        decode(Arrays.copyOf(bytes, bytes.length - 10));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsANegativeCount() throws IOException {
+        decode(withInt(encode(BOOKS), 0, -1));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAHugeCount() throws IOException {
+        decode(withInt(encode(BOOKS), 0, Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAHugeStringLength() throws IOException {
+        // The length of the id of the first book follows the count.
+        decode(withInt(encode(BOOKS), 4, Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsANegativeStringLength() throws IOException {
+        decode(withInt(encode(BOOKS), 4, -5));
+    }
+
+    private static byte[] encode(List<Book> books) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BookListCodec.write(new DataOutputStream(bytes), books);
+        return bytes.toByteArray();
+    }
+
+    private static List<Book> decode(byte[] bytes) throws IOException {
+        return BookListCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+    }
+
+    /**
+     * Returns a copy of the given bytes with a big-endian int overwritten at the given offset.
+     */
+    private static byte[] withInt(byte[] bytes, int offset, int value) {
+        byte[] copy = bytes.clone();
+        for (int i = 0; i < 4; i++) copy[offset + i] = (byte) (value >>> (24 - 8 * i));
+        return copy;
+    }
+}
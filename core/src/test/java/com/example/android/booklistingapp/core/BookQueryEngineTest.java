@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the sort keys and the filters of {@link BookQueryEngine}.
+ */
+public class BookQueryEngineTest {
+    private static Book book(String id, String publisher, String publishedDate, int pages, int stars) {
+        return new Book(id, "", "", publisher, publishedDate, pages, stars, "", "", "");
+    }
+
+    private static List<String> ids(List<Book> books) {
+        List<String> ids = new ArrayList<>();
+        for (Book book : books) ids.add(book.getId());
+        return ids;
+    }
+
+    private static final List<Book> BOOKS = Arrays.asList(
+            book("a", "Penguin", "2004", 320, 4),
+            book("b", "", "2010-05-02", 0, 5),
+            book("c", "harperCollins", "", 150, 4),
+            book("d", "Penguin Books", "2010-05", 900, 0));
+
+    @Test
+    public void parsesPublicationDates() {
+        assertEquals(20100502, BookQueryEngine.parseDate("2010-05-02"));
+        assertEquals(20100500, BookQueryEngine.parseDate("2010-05"));
+        assertEquals(20040000, BookQueryEngine.parseDate("2004"));
+        assertEquals(19990000, BookQueryEngine.parseDate("1999*"));
+        assertEquals(0, BookQueryEngine.parseDate(""));
+        assertEquals(0, BookQueryEngine.parseDate("n.d."));
+    }
+
+    @Test
+    public void sortsWithUnknownValuesLast() {
+        BookQueryEngine engine = new BookQueryEngine();
+        engine.update(BOOKS);
+        BookFilter all = new BookFilter();
+        assertEquals(Arrays.asList("a", "b", "c", "d"), ids(engine.query(all, SortOrder.RELEVANCE)));
+        assertEquals(Arrays.asList("b", "a", "c", "d"), ids(engine.query(all, SortOrder.RATING)));
+        assertEquals(Arrays.asList("b", "d", "a", "c"), ids(engine.query(all, SortOrder.NEWEST)));
+        assertEquals(Arrays.asList("a", "d", "b", "c"), ids(engine.query(all, SortOrder.OLDEST)));
+        assertEquals(Arrays.asList("c", "a", "d", "b"), ids(engine.query(all, SortOrder.SHORTEST)));
+        assertEquals(Arrays.asList("d", "a", "c", "b"), ids(engine.query(all, SortOrder.LONGEST)));
+        assertEquals(Arrays.asList("c", "a", "d", "b"), ids(engine.query(all, SortOrder.PUBLISHER)));
+    }
+
+    @Test
+    public void filters() {
+        BookQueryEngine engine = new BookQueryEngine();
+        engine.update(BOOKS);
+        assertEquals(Arrays.asList("b", "a", "c"), ids(engine.query(new BookFilter().minStars(4), SortOrder.RATING)));
+        assertEquals(Arrays.asList("a", "c"), ids(engine.query(new BookFilter().pages(1, 500), SortOrder.RELEVANCE)));
+        assertEquals(Arrays.asList("b", "d"), ids(engine.query(new BookFilter().years(2005, 2020), SortOrder.RELEVANCE)));
+        assertEquals(Arrays.asList("a", "d"), ids(engine.query(new BookFilter().publisher(" PENGUIN"), SortOrder.RELEVANCE)));
+    }
+}
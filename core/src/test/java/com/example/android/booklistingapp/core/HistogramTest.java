@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the percentiles of {@link Histogram}, and of its ring buffer of samples.
+ */
+public class HistogramTest {
+    @Test
+    public void computesNearestRankPercentiles() {
+        Histogram histogram = new Histogram("stage");
+        for (int i = 100; i >= 1; i--) histogram.record(i);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50, snapshot.getMean());
+        assertEquals(50, snapshot.getP50());
+        assertEquals(95, snapshot.getP95());
+        assertEquals(99, snapshot.getP99());
+        assertEquals(100, snapshot.getMax());
+    }
+
+    @Test
+    public void roundsRanksUp() {
+        Histogram histogram = new Histogram("stage");
+        histogram.record(30);
+        histogram.record(10);
+        histogram.record(20);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        // Ranks 1.5, 2.85 and 2.97 round up to the 2nd and the 3rd samples.
+        assertEquals(20, snapshot.getP50());
+        assertEquals(30, snapshot.getP95());
+        assertEquals(30, snapshot.getP99());
+    }
+
+    @Test
+    public void isEmptyWithoutSamples() {
+        Histogram histogram = new Histogram("stage");
+        histogram.record(5);
+        histogram.reset();
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMean());
+        assertEquals(0, snapshot.getP50());
+        assertEquals(0, snapshot.getMax());
+    }
+
+    @Test
+    public void keepsOnlyTheLatestSamples() {
+        Histogram histogram = new Histogram("stage");
+        int total = Histogram.CAPACITY + 100;
+        for (int i = 1; i <= total; i++) histogram.record(i);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        // The first 100 samples are overwritten, so the percentiles cover 101 to 1124.
+        assertEquals(total, snapshot.getCount());
+        assertEquals(612, snapshot.getMean());
+        assertEquals(612, snapshot.getP50());
+        assertEquals(1114, snapshot.getP99());
+        assertEquals(total, snapshot.getMax());
+    }
+
+    @Test
+    public void keepsTheMaximumOfOverwrittenSamples() {
+        Histogram histogram = new Histogram("stage");
+        histogram.record(1000000);
+        for (int i = 0; i < Histogram.CAPACITY; i++) histogram.record(1);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getP99());
+        assertEquals(1000000, snapshot.getMax());
+    }
+}
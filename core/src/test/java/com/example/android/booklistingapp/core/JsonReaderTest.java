@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the tokens read by {@link JsonReader}, and of its handling of malformed documents.
+ */
+public class JsonReaderTest {
+    @Test
+    public void readsNestedValues() throws IOException {
+        JsonReader reader = reader(" {\"a\": [1, -2.5e1, \"x\"], \"b\": {}, \"c\": true, \"d\": null} ");
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.beginArray();
+        assertEquals(1, reader.nextInt());
+        assertEquals(-25.0, reader.nextDouble(), 0);
+        assertEquals(JsonToken.STRING, reader.peek());
+        assertEquals("x", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("b", reader.nextName());
+        reader.beginObject();
+        reader.endObject();
+        assertEquals("c", reader.nextName());
+        assertEquals(JsonToken.BOOLEAN, reader.peek());
+        reader.skipValue();
+        assertEquals("d", reader.nextName());
+        assertEquals(JsonToken.NULL, reader.peek());
+        reader.skipValue();
+        reader.endObject();
+        assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void skipsWholeValues() throws IOException {
+        JsonReader reader = reader("{\"skipped\": {\"a\": [1, {\"b\": \"}]\"}], \"c\": null}, \"kept\": 7}");
+        reader.beginObject();
+        assertEquals("skipped", reader.nextName());
+        reader.skipValue();
+        assertEquals("kept", reader.nextName());
+        assertEquals(7, reader.nextInt());
+        reader.endObject();
+    }
+
+    @Test
+    public void unescapesStrings() throws IOException {
+        JsonReader reader = reader("[\"a\\\"b\\\\c\\/d\\n\\u00e9\\u20AC\"]");
+        reader.beginArray();
+        assertEquals("a\"b\\c/d\n\u00e9\u20ac", reader.nextString());
+    }
+
+    @Test
+    public void readsStringsLongerThanItsBuffer() throws IOException {
+        // Escapes straddle the boundaries of the buffer at some point.
+        char[] chars = new char[20000];
+        Arrays.fill(chars, 'x');
+        String plain = new String(chars);
+        String escaped = plain.replace("xxxxxxx", "xxxxx\\u0041");
+        JsonReader reader = reader("[\"" + plain + "\", \"" + escaped + "\", 3]");
+        reader.beginArray();
+        assertEquals(plain, reader.nextString());
+        assertEquals(plain.replace("xxxxxxx", "xxxxxA"), reader.nextString());
+        assertEquals(3, reader.nextInt());
+        reader.endArray();
+    }
+
+    @Test
+    public void convertsNumbers() throws IOException {
+        JsonReader reader = reader("[3.0, \"12\", 4.5, 2147483648]");
+        reader.beginArray();
+        assertEquals(3, reader.nextInt());
+        assertEquals(12, reader.nextInt());
+        try {
+            reader.nextInt();
+            fail();
+        } catch (NumberFormatException expected) {
+        }
+        assertEquals(2147483648.0, reader.nextDouble(), 0);
+        assertFalse(reader.hasNext());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsAnUnexpectedToken() throws IOException {
+        reader("[1]").beginObject();
+    }
+
+    @Test
+    public void rejectsMalformedDocuments() {
+        String[] documents = {"{\"a\":1,}", "[1 2]", "{\"a\" 1}", "[\"abc", "[tru]", "[01]", "[1,]",
+                "{a:1}", "[\"\\x\"]", "[1] 2", "", "[-]"};
+        for (String document : documents) {
+            try {
+                JsonReader reader = reader(document);
+                reader.skipValue();
+                reader.peek();
+                fail("Accepted " + document);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    private static JsonReader reader(String document) {
+        return new JsonReader(new StringReader(document));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the suggestions of {@link SuggestionTrie}.
+ */
+public class SuggestionTrieTest {
+
+    @Test
+    public void suggestsTheHeaviestTermsStartingWithThePrefix() {
+        SuggestionTrie trie = new SuggestionTrie.Builder()
+                .add("Android Programming", 5)
+                .add("Android", 9)
+                .add("Andromeda Strain", 7)
+                .add("Java", 20)
+                .build();
+        assertEquals(Arrays.asList("Android", "Andromeda Strain", "Android Programming"), trie.suggest("and", 5));
+        assertEquals(Arrays.asList("Android", "Andromeda Strain"), trie.suggest("and", 2));
+        assertEquals(Collections.singletonList("Android Programming"), trie.suggest("android ", 5));
+        assertEquals(Collections.emptyList(), trie.suggest("kotlin", 5));
+        assertEquals(Collections.emptyList(), trie.suggest("", 5));
+    }
+
+    @Test
+    public void ignoresTheCaseAndTheExtraWhitespace() {
+        SuggestionTrie trie = new SuggestionTrie.Builder()
+                .add("  The Hobbit ", 1)
+                .add("the   hobbit", 1)
+                .add("THE HOBBIT", 3)
+                .build();
+        assertEquals(1, trie.size());
+        assertEquals(Collections.singletonList("THE HOBBIT"), trie.suggest("  tHe  h", 5));
+    }
+
+    @Test
+    public void ranksTiedTermsAlphabetically() {
+        SuggestionTrie trie = new SuggestionTrie.Builder()
+                .add("cc", 1)
+                .add("ca", 1)
+                .add("cb", 1)
+                .add("c", 1)
+                .build();
+        assertEquals(Arrays.asList("c", "ca", "cb", "cc"), trie.suggest("c", 10));
+    }
+}
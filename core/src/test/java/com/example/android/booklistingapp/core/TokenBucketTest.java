@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the rate of {@link TokenBucket}.
+ */
+public class TokenBucketTest {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void letsBurstsThroughAndThenLimitsTheRate() {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(SECOND / 2, bucket.reserve(0));
+        assertEquals(SECOND, bucket.reserve(0));
+    }
+
+    @Test
+    public void refillsUpToItsCapacity() {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+        for (int i = 0; i < 3; i++) bucket.reserve(0);
+        // One token refilled.
+        assertEquals(0, bucket.reserve(SECOND / 2));
+        assertEquals(SECOND / 2, bucket.reserve(SECOND / 2));
+
+        // Idle for a long time, but only 3 tokens are kept.
+        long later = 100 * SECOND;
+        for (int i = 0; i < 3; i++) assertEquals(0, bucket.reserve(later));
+        assertTrue(bucket.reserve(later) > 0);
+    }
+}
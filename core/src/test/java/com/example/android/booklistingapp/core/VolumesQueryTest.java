@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the urls built by {@link VolumesQuery}.
+ */
+public class VolumesQueryTest {
+    @Test
+    public void recognizesIsbns() {
+        assertEquals("9780306406157", VolumesQuery.toIsbn("978-0-306-40615-7"));
+        assertEquals("080442957X", VolumesQuery.toIsbn("0 8044 2957 x"));
+        assertNull(VolumesQuery.toIsbn("978-0-306-40615-8"));
+        assertNull(VolumesQuery.toIsbn("The Hobbit"));
+        assertTrue(VolumesQuery.buildLookupUrl("0-306-40615-2").contains("q=isbn%3A0306406152&"));
+        assertTrue(VolumesQuery.buildLookupUrl("The Hobbit").contains("q=the+hobbit&startIndex=0&maxResults=1&"));
+    }
+}
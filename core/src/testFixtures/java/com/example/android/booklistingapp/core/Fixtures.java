@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Responses of the volumes endpoint of the Google Books API used by the tests and the benchmarks,
+ * shared with the load tests of the app.
+ * <p>
+ * The API returns at most 40 items per page, so the responses of 10 and 40 items are read from
+ * the fixtures directory, and bigger responses are built by repeating the items of the 40 items
+ * one.
+ */
+public final class Fixtures {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ITEMS_START = "\"items\": [";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Returns the body of a response with the given number of items.
+     *
+     * @param items is the number of items: 10, 40, or any multiple of 40.
+     * @return the body of the response, encoded as UTF-8.
+     * @throws IOException if the fixture can't be read.
+     */
+    public static byte[] volumes(int items) throws IOException {
+        if (items == 10 || items == 40) return read("fixtures/volumes-" + items + ".json");
+        if (items % 40 != 0) throw new IllegalArgumentException("Unsupported number of items: " + items);
+
+        String response = new String(read("fixtures/volumes-40.json"), UTF_8);
+        int start = response.indexOf(ITEMS_START) + ITEMS_START.length();
+        int end = response.lastIndexOf(']');
+        String itemList = response.substring(start, end).trim();
+        StringBuilder builder = new StringBuilder(response.length() * (items / 40));
+        builder.append(response, 0, start);
+        for (int i = 0; i < items / 40; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(itemList);
+        }
+        builder.append(response, end, response.length());
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Reads a resource of the tests.
+     *
+     * @param name is the path of the resource.
+     * @return the contents of the resource.
+     * @throws IOException if the resource can't be read.
+     */
+    static byte[] read(String name) throws IOException {
+        InputStream input = Fixtures.class.getClassLoader().getResourceAsStream(name);
+        if (input == null) throw new IOException("Missing fixture " + name);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) output.write(buffer, 0, read);
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+}
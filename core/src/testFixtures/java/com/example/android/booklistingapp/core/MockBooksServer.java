@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.booklistingapp.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Local stand-in for the Google Books API, for load and regression tests that can't run against
+ * the real endpoint.
+ * <p>
+ * It serves the recorded volumes responses of the fixtures, gzip-compressed when requested, with
+ * their thumbnail links rewritten to point at itself, and a JPEG image for every thumbnail. The
+ * latency, bandwidth, error rate and payload size of the responses are set by a {@link Scenario}.
+ * <p>
+ * It lives with the fixtures of the core module, and is shared with the load tests of the app,
+ * which point the fetch path of the app at it.
+ */
+public class MockBooksServer implements Closeable {
+    public static final String VOLUMES_PATH = "/books/v1/volumes";
+    public static final String COVERS_PATH = "/books/content";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String RECORDED_COVERS_URL = "http://books.google.com" + COVERS_PATH;
+    private static final int CHUNK_BYTES = 1024;        // Bytes written between bandwidth pauses.
+    private static final int THREADS = 16;              // Requests served in parallel.
+    private static final String ID_KEY = "\"id\": \"";   // Start of the volume ids.
+    private static final String THREAD_NAME = "MockBooksServer";    // Prefix of the serving threads.
+    private static final String DISPATCHER_THREAD_NAME = "HTTP-Dispatcher";  // Accepting thread.
+
+    private final Scenario scenario;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] volumes;                       // Body of the volumes responses.
+    private final byte[] gzippedVolumes;                // Same body, gzip-compressed.
+    private final byte[] cover;                         // Body of the thumbnail responses.
+    private final Random random;                        // Source of the simulated errors.
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+
+    /**
+     * Network conditions and payloads simulated by the server.
+     */
+    public static class Scenario {
+        int latencyMillis;          // Delay before the response headers are sent.
+        long bytesPerSecond;        // Bandwidth of every response, or 0 for unlimited.
+        double errorRate;           // Fraction of requests answered with "503 Service Unavailable".
+        int items = 40;             // Number of items of the volumes responses: 10, 40 or n * 40.
+        boolean uniquePages;        // True if every page has its own volume ids.
+        int coverWidth = 128;       // Size of the thumbnails.
+        int coverHeight = 192;
+        long seed = 1;              // Seed of the simulated errors, so runs are reproducible.
+
+        public Scenario latency(int millis) {
+            latencyMillis = millis;
+            return this;
+        }
+
+        public Scenario bandwidth(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        public Scenario errorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        public Scenario items(int items) {
+            this.items = items;
+            return this;
+        }
+
+        /**
+         * Prefixes the volume ids of every page with its start index, so the pages of a search
+         * fetched in shards don't look like the same books.
+         */
+        public Scenario uniquePages() {
+            uniquePages = true;
+            return this;
+        }
+    }
+
+    /**
+     * Starts a new server on a free port of the loopback interface.
+     *
+     * @param scenario is the simulated network conditions and payloads.
+     * @throws IOException if the server can't be started or the fixtures can't be read.
+     */
+    public MockBooksServer(Scenario scenario) throws IOException {
+        this.scenario = scenario;
+        random = new Random(scenario.seed);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+        String body = new String(Fixtures.volumes(scenario.items), UTF_8);
+        volumes = body.replace(RECORDED_COVERS_URL, getBaseUrl() + COVERS_PATH).getBytes(UTF_8);
+        gzippedVolumes = gzip(volumes);
+        cover = jpeg(scenario.coverWidth, scenario.coverHeight);
+
+        server.createContext(VOLUMES_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                boolean gzip = accepts(exchange, "gzip");
+                byte[] body = volumes;
+                if (MockBooksServer.this.scenario.uniquePages) {
+                    String startIndex = parameter(exchange, "startIndex");
+                    body = new String(volumes, UTF_8).replace(ID_KEY, ID_KEY + startIndex + "-").getBytes(UTF_8);
+                    if (gzip) body = gzip(body);
+                } else if (gzip) {
+                    body = gzippedVolumes;
+                }
+                respond(exchange, "application/json; charset=UTF-8", body, gzip);
+            }
+        });
+        server.createContext(COVERS_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, "image/jpeg", cover, false);
+            }
+        });
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, THREAD_NAME + "-" + count.incrementAndGet());
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the url of the volumes endpoint, for {@link VolumesQuery#buildUrl(String, String, int, int)}.
+     */
+    public String getVolumesUrl() {
+        return getBaseUrl() + VOLUMES_PATH;
+    }
+
+    /**
+     * Returns the url of the server, without any path.
+     */
+    public String getBaseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    /**
+     * Returns the number of requests received so far.
+     */
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of requests answered with an error so far.
+     */
+    public int getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * Returns true if the given thread belongs to a server, so the measures of the clients can
+     * leave out the work of the servers.
+     */
+    public static boolean isServerThread(Thread thread) {
+        return thread.getName().startsWith(THREAD_NAME) || thread.getName().equals(DISPATCHER_THREAD_NAME);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sends a response after the latency of the scenario, or an error at the error rate of the
+     * scenario, writing the body at the bandwidth of the scenario.
+     */
+    private void respond(HttpExchange exchange, String contentType, byte[] body, boolean gzip) throws IOException {
+        requests.incrementAndGet();
+        try {
+            exchange.getRequestBody().close();
+            sleep(scenario.latencyMillis);
+            if (isError()) {
+                errors.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            if (gzip) exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream output = exchange.getResponseBody();
+            for (int offset = 0; offset < body.length; offset += CHUNK_BYTES) {
+                int count = Math.min(CHUNK_BYTES, body.length - offset);
+                output.write(body, offset, count);
+                if (scenario.bytesPerSecond > 0) {
+                    output.flush();
+                    sleep(count * 1000L / scenario.bytesPerSecond);
+                }
+            }
+            output.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean isError() {
+        synchronized (random) {
+            return random.nextDouble() < scenario.errorRate;
+        }
+    }
+
+    /**
+     * Returns the value of a parameter of the query string of a request, or "" if it is missing.
+     */
+    private static String parameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return "";
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) return pair.substring(name.length() + 1);
+        }
+        return "";
+    }
+
+    private static boolean accepts(HttpExchange exchange, String encoding) {
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains(encoding);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
+        gzipOutput.write(body);
+        gzipOutput.close();
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns a JPEG image of the given size, with a gradient so it doesn't compress to nothing.
+     */
+    private static byte[] jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x ^ y) & 0xff));
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return output.toByteArray();
+    }
+}